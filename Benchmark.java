@@ -0,0 +1,449 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Purpose:
+ *      Load generator comparing the server execution modes. For each mode a server is started in this process on its own
+ *      port, then a number of clients connect at once, each requesting the same file and reading the response to the end.
+ *      The clients are driven from a single Selector so that tens of thousands of them do not need a thread each.
+ *
+ *      Usage: java Benchmark [--clients=10000] [--file=file1.jpg] [--modes=single,pool,virtual,reactor] [--port=20000]
+ *                            [--latency=0] [--files=200] [--depth=32]
+ *      Run from the directory containing Images/. Each mode may be followed by server settings separated by ':', for
+ *      example --modes=reactor:selectors=0,reactor:selectors=4:balance=roundrobin or --modes=pool:zerocopy=false,pool.
+ *
+ *      With --latency set to a round trip time in milliseconds, the modes are instead compared on a slow link: the
+ *      server is reached through an in-process proxy delaying the data in each direction by half the round trip, and a
+ *      single Client fetches the file --files times over one connection, first one request at a time and then with up
+ *      to --depth requests pipelined.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class Benchmark {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long TIMEOUT_MILLIS = 120_000;
+
+    /**
+     * Purpose:
+     *      The state of one benchmark client connection.
+     */
+    private static class Connection {
+        final ByteBuffer request;
+        long startNanos;
+        long endNanos;
+        long received;
+        byte flag;
+
+        Connection(ByteBuffer request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * Purpose:
+     *      A TCP proxy simulating a slow link: every connection accepted is relayed to the server, with the data in each
+     *      direction held back for delayMillis before it is forwarded. Each direction is relayed by a reader thread, which
+     *      stamps each chunk with the time it is due, and a writer thread forwarding the chunks in order once due, so
+     *      the delay is added to every byte without limiting the throughput.
+     */
+    private static class DelayProxy implements Closeable {
+        private static final byte[] END = new byte[0];
+
+        private static class Chunk {
+            final long due;
+            final byte[] data;
+
+            Chunk(long due, byte[] data) {
+                this.due = due;
+                this.data = data;
+            }
+        }
+
+        private final ServerSocket listener;
+        private final int serverPort;
+        private final long delayNanos;
+
+        /**
+         * Constructor
+         * @param serverPort  : port of the server to relay connections to
+         * @param delayMillis : delay added to the data in each direction
+         *
+         * @exception IOException : when the proxy cannot listen on a port.
+         */
+        DelayProxy(int serverPort, int delayMillis) throws IOException {
+            this.listener = new ServerSocket(0);
+            this.serverPort = serverPort;
+            this.delayNanos = delayMillis * 1_000_000L;
+            Thread thread = new Thread(this::accept, "delay-proxy");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return listener.getLocalPort();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket client = listener.accept();
+                    Socket server = new Socket("localhost", serverPort);
+                    client.setTcpNoDelay(true);
+                    server.setTcpNoDelay(true);
+                    relay(client, server);
+                    relay(server, client);
+                }
+            } catch (IOException e) {
+                return;
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Starts relaying the data received on one socket to the other, delayed. When the sender shuts down its
+         *      output the receiver's output is shut down too, once the data before it has been forwarded.
+         *
+         *  @param from : The socket to read from.
+         *  @param to : The socket to write to.
+         */
+        private void relay(Socket from, Socket to) {
+            BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                try {
+                    InputStream in = from.getInputStream();
+                    int done;
+                    while ((done = in.read(buffer)) != -1) {
+                        chunks.add(new Chunk(System.nanoTime() + delayNanos, Arrays.copyOf(buffer, done)));
+                    }
+                } catch (IOException e) {
+                    // the connection was reset or closed; forward the end of the stream
+                }
+                chunks.add(new Chunk(System.nanoTime() + delayNanos, END));
+            }, "delay-proxy-reader");
+            Thread writer = new Thread(() -> {
+                try {
+                    OutputStream out = to.getOutputStream();
+                    while (true) {
+                        Chunk chunk = chunks.take();
+                        long wait = chunk.due - System.nanoTime();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                        }
+                        if (chunk.data == END) {
+                            to.shutdownOutput();
+                            if (from.isOutputShutdown() || to.isInputShutdown()) {
+                                from.close();
+                                to.close();
+                            }
+                            return;
+                        }
+                        out.write(chunk.data);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            }, "delay-proxy-writer");
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        private static void closeQuietly(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                return;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            listener.close();
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Starts a server with the given configuration on a daemon thread and waits until it accepts connections.
+     *
+     *  @param config : Configuration of the server to start.
+     *
+     *  @exception IOException : when the server does not start accepting connections within ten seconds.
+     */
+    static void startServer(ServerConfig config) throws IOException {
+        Thread thread = new Thread(() -> new Server(config).serve(), "server-" + config.port);
+        thread.setDaemon(true);
+        thread.start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try {
+                new Socket("localhost", config.port).close();
+                return;
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException interrupted) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Connects the given number of clients to the server at once, sends each the request line for filename, and reads
+     *      every response until the server closes the connection. Prints the number of complete transfers, BUSY and
+     *      failed responses, the elapsed time, throughput and latency percentiles.
+     *
+     *  @param label    : Name of the run, printed with the results.
+     *  @param port     : Port of the server under test.
+     *  @param clients  : Number of concurrent clients.
+     *  @param filename : Name of the file each client requests.
+     *
+     *  @exception IOException : when the selector cannot be opened.
+     */
+    static void run(String label, int port, int clients, String filename) throws IOException {
+        byte[] request = (filename + "\n").getBytes(StandardCharsets.UTF_8);
+        InetSocketAddress address = new InetSocketAddress("localhost", port);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        List<Connection> finished = new ArrayList<>(clients);
+        int failed = 0;
+
+        long start = System.nanoTime();
+        long startCpu = processCpuNanos();
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < clients; i++) {
+                Connection client = new Connection(ByteBuffer.wrap(request));
+                client.startNanos = System.nanoTime();
+                try {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    int ops = channel.connect(address) ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT;
+                    channel.register(selector, ops, client);
+                } catch (IOException e) {
+                    failed++;
+                }
+            }
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (!selector.keys().isEmpty() && System.currentTimeMillis() < deadline) {
+                selector.select(1000);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    Connection client = (Connection) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            channel.finishConnect();
+                            key.interestOps(SelectionKey.OP_WRITE);
+                        } else if (key.isWritable()) {
+                            channel.write(client.request);
+                            if (!client.request.hasRemaining()) {
+                                key.interestOps(SelectionKey.OP_READ);
+                            }
+                        } else if (key.isReadable()) {
+                            buffer.clear();
+                            int done = channel.read(buffer);
+                            if (done > 0 && client.received == 0) {
+                                client.flag = buffer.get(0);
+                            }
+                            if (done > 0) {
+                                client.received += done;
+                            } else if (done < 0) {
+                                client.endNanos = System.nanoTime();
+                                finished.add(client);
+                                key.cancel();
+                                channel.close();
+                            }
+                        }
+                    } catch (IOException e) {
+                        failed++;
+                        key.cancel();
+                        channel.close();
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                failed++;
+                key.channel().close();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        report(label, clients, finished, failed, elapsed, processCpuNanos() - startCpu);
+    }
+
+    /**
+     * Purpose:
+     *      Fetches filename the given number of times over one keep-alive connection through a DelayProxy in front of the
+     *      server, once with one request in flight at a time and once with up to depth requests pipelined, and prints the
+     *      time each took. Every request asks for the whole file, as a conditional request for the copy fetched just
+     *      before would be answered NOT_MODIFIED. The fetched copy is written to the working directory by Client and
+     *      deleted afterwards.
+     *
+     *  @param label    : Name of the run, printed with the results.
+     *  @param port     : Port of the server under test.
+     *  @param latency  : Round trip time added by the proxy in milliseconds.
+     *  @param files    : Number of times the file is requested.
+     *  @param depth    : Maximum number of requests pipelined.
+     *  @param filename : Name of the file requested.
+     *
+     *  @exception IOException : when the proxy cannot listen on its port.
+     */
+    static void pipeline(String label, int port, int latency, int files, int depth, String filename) throws IOException {
+        String[] filenames = new String[files];
+        Arrays.fill(filenames, filename);
+        try (DelayProxy proxy = new DelayProxy(port, latency / 2)) {
+            StringBuilder results = new StringBuilder();
+            for (int requests : new int[] { 1, depth }) {
+                Client client = new Client("localhost", proxy.port(), filenames);
+                client.pipelineDepth = requests;
+                client.conditional = false;
+                long start = System.nanoTime();
+                client.connect();
+                long elapsed = System.nanoTime() - start;
+                results.append(String.format(" depth=%d time=%.0fms perFile=%.2fms", requests, elapsed / 1e6, elapsed / 1e6 / files));
+            }
+            System.out.println(String.format("%-12s latency=%dms files=%d%s", label, latency, files, results));
+        } finally {
+            new File(filename).delete();
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Returns the CPU time used by this process so far, by both the server and the benchmark clients.
+     *
+     *  Returns:
+     *      The CPU time in nanoseconds, or 0 when the platform does not report it.
+     */
+    static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    /**
+     * Purpose:
+     *      Prints the results of one run.
+     *
+     *  @param label    : Name of the run.
+     *  @param clients  : Number of concurrent clients.
+     *  @param finished : Clients whose connection was closed normally by the server.
+     *  @param failed   : Number of clients whose connection failed or timed out.
+     *  @param elapsed  : Duration of the run in nanoseconds.
+     *  @param cpu      : CPU time used by the process during the run in nanoseconds.
+     *
+     * NOTES:
+     *      CPU per GB includes the benchmark clients, which do the same work in every run, so differences between runs
+     *      are the server's.
+     */
+    static void report(String label, int clients, List<Connection> finished, int failed, long elapsed, long cpu) {
+        long bytes = 0;
+        int ready = 0;
+        int busy = 0;
+        long[] latencies = new long[finished.size()];
+        int count = 0;
+        for (Connection client : finished) {
+            if (client.flag == 'R') {
+                ready++;
+                bytes += client.received;
+                latencies[count++] = client.endNanos - client.startNanos;
+            } else if (client.flag == 'B') {
+                busy++;
+            } else {
+                failed++;
+            }
+        }
+        Arrays.sort(latencies, 0, count);
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format(
+            "%-12s clients=%d ok=%d busy=%d failed=%d time=%.2fs throughput=%.1fMB/s cpu=%.2fs/GB p50=%.1fms p99=%.1fms max=%.1fms",
+            label, clients, ready, busy, failed, seconds, bytes / seconds / (1024 * 1024),
+            bytes == 0 ? 0.0 : cpu / 1e9 / (bytes / (1024.0 * 1024 * 1024)),
+            percentile(latencies, count, 0.50), percentile(latencies, count, 0.99), percentile(latencies, count, 1.0)));
+    }
+
+    private static double percentile(long[] sorted, int count, double p) {
+        if (count == 0) {
+            return 0.0;
+        }
+        int index = Math.min(count - 1, (int) Math.ceil(p * count) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int clients = 10_000;
+        int port = 20_000;
+        int latency = 0;
+        int files = 200;
+        int depth = 32;
+        String filename = "file1.jpg";
+        String modes = "single,pool,virtual,reactor";
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            String name = split < 0 ? arg : arg.substring(0, split);
+            String value = split < 0 ? "" : arg.substring(split + 1);
+            switch (name) {
+                case "--clients":
+                    clients = Integer.parseInt(value);
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--file":
+                    filename = value;
+                    break;
+                case "--modes":
+                    modes = value;
+                    break;
+                case "--latency":
+                    latency = Integer.parseInt(value);
+                    break;
+                case "--files":
+                    files = Integer.parseInt(value);
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(value);
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + arg);
+                    System.exit(-1);
+            }
+        }
+        for (String mode : modes.split(",")) {
+            String[] settings = mode.split(":");
+            List<String> serverArgs = new ArrayList<>();
+            serverArgs.add("--mode=" + settings[0]);
+            serverArgs.add("--port=" + port++);
+            for (int i = 1; i < settings.length; i++) {
+                serverArgs.add("--" + settings[i]);
+            }
+            ServerConfig config = ServerConfig.parse(serverArgs.toArray(new String[0]));
+            startServer(config);
+            if (latency > 0) {
+                pipeline(mode, config.port, latency, files, depth, filename);
+            } else {
+                run(mode, config.port, clients, filename);
+            }
+        }
+    }
+}
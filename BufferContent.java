@@ -0,0 +1,63 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Purpose:
+ *      Content held in a ByteBuffer. Every transfer works on its own read-only view of the buffer, so one buffer can be
+ *      written to any number of sockets at once without copying it.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public abstract class BufferContent implements Content {
+
+    private volatile long checksum = -1;
+
+    /**
+     * Purpose:
+     *      Returns the buffer holding the whole file, from position 0 to its limit. The buffer itself is not modified.
+     */
+    protected abstract ByteBuffer buffer();
+
+    @Override
+    public long size() {
+        return buffer().limit();
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return target.write(view(position, count));
+    }
+
+    @Override
+    public int read(ByteBuffer target, long position) throws IOException {
+        if (position >= size()) {
+            return -1;
+        }
+        ByteBuffer view = view(position, target.remaining());
+        int done = view.remaining();
+        target.put(view);
+        return done;
+    }
+
+    @Override
+    public long checksum() throws IOException {
+        long value = checksum;
+        if (value < 0) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer().asReadOnlyBuffer());
+            value = crc.getValue();
+            checksum = value;
+        }
+        return value;
+    }
+
+    private ByteBuffer view(long position, long count) {
+        ByteBuffer view = buffer().asReadOnlyBuffer();
+        view.limit((int) Math.min(view.limit(), position + count)).position((int) position);
+        return view;
+    }
+}
@@ -0,0 +1,352 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Purpose:
+ *      Storage backend that splits files into content-defined chunks and stores each distinct chunk once, so files that
+ *      are copies or near copies of each other share the disk space, and the page cache, of the chunks they have in
+ *      common. It keeps two PackStores in its directory:
+ *            - "data/", holding each chunk under the hex SHA-256 digest of its bytes.
+ *            - "files/", holding for each file a recipe: the size of the file as 8 bytes and its CRC32 checksum as 4
+ *              bytes, followed for each chunk by its SHA-256 digest as 32 bytes and its length as 4 bytes.
+ *      Files are sent by opening each of their chunks in turn (see ChunkedContent).
+ *
+ *      Chunk boundaries are found with FastCDC: a gear hash rolls over the bytes, and a chunk is cut where the hash has
+ *      the bits of a mask all zero. Boundaries depend only on the bytes around them, so an insertion or deletion in a
+ *      file only changes the chunks next to it, and the rest are found again in the store. Chunks are between
+ *      MIN_CHUNK and MAX_CHUNK bytes; a harder mask before AVERAGE_CHUNK and an easier one after it keep most chunks
+ *      close to that size.
+ *
+ * NOTES:
+ *      The chunks of a replaced, deleted or damaged recipe are not reclaimed; the compactor only reclaims the replaced
+ *      and deleted recipes.
+ *      The digests of chunks already stored are looked up in the data store's index, so adding a file whose chunks
+ *      are all known writes only its recipe.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class ChunkStore implements FileStore {
+
+    static final int MIN_CHUNK = 2 * 1024;
+    static final int AVERAGE_CHUNK = 8 * 1024;
+    static final int MAX_CHUNK = 64 * 1024;
+    private static final long MASK_SMALL = 0x0000d9f003530000L;
+    private static final long MASK_LARGE = 0x0000d90003530000L;
+    private static final long[] GEAR = new long[256];
+    private static final int DIGEST_SIZE = 32;
+    private static final int RECIPE_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int RECIPE_CHUNK_SIZE = DIGEST_SIZE + Integer.BYTES;
+    private static final int READ_BUFFER_SIZE = 4 * MAX_CHUNK;
+
+    static {
+        Random random = new Random(0x43444346L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final PackStore files;
+    private final PackStore chunks;
+    private long chunksAdded;
+    private long chunksShared;
+    private long bytesShared;
+
+    /**
+     * Purpose:
+     *      A file in the store, as described by the header of its recipe.
+     */
+    public class Entry implements FileStore.Entry {
+        public final String filename;
+        private final PackStore.Entry recipe;
+        private final long size;
+        private final long checksum;
+
+        Entry(String filename, PackStore.Entry recipe, long size, long checksum) {
+            this.filename = filename;
+            this.recipe = recipe;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public long modified() {
+            return recipe.modified;
+        }
+
+        @Override
+        public long checksum() {
+            return checksum;
+        }
+
+        /**
+         * Purpose:
+         *      Returns the contents of the file for one transfer, opening each of its chunks.
+         *
+         *  Returns:
+         *      The file contents, or null if the recipe or one of its chunks can no longer be read. The caller must
+         *      release them when the transfer is finished.
+         */
+        @Override
+        public Content open() {
+            ByteBuffer chunkList = read(recipe);
+            if (chunkList == null) {
+                return null;
+            }
+            int count = (chunkList.remaining() - RECIPE_HEADER_SIZE) / RECIPE_CHUNK_SIZE;
+            Content[] opened = new Content[count];
+            byte[] digest = new byte[DIGEST_SIZE];
+            chunkList.position(RECIPE_HEADER_SIZE);
+            for (int i = 0; i < count; i++) {
+                chunkList.get(digest);
+                int length = chunkList.getInt();
+                PackStore.Entry chunk = chunks.get(hex(digest));
+                opened[i] = chunk == null || chunk.size != length ? null : chunk.open();
+                if (opened[i] == null) {
+                    System.err.println("Missing chunk " + hex(digest) + " of " + filename);
+                    for (int j = 0; j < i; j++) {
+                        opened[j].release();
+                    }
+                    return null;
+                }
+            }
+            return new ChunkedContent(opened, checksum);
+        }
+    }
+
+    /**
+     * Constructor
+     * @param directory   : the directory holding the two pack stores, created if it does not exist
+     * @param segmentSize : size in bytes past which the pack stores start a new segment
+     *
+     * @exception IOException : when the directory or a segment cannot be read.
+     */
+    public ChunkStore(String directory, long segmentSize) throws IOException {
+        this.files = new PackStore(directory + "files/", segmentSize);
+        this.chunks = new PackStore(directory + "data/", segmentSize);
+    }
+
+    @Override
+    public Entry get(String filename) {
+        PackStore.Entry recipe = files.get(filename);
+        if (recipe == null) {
+            return null;
+        }
+        Content content = recipe.open();
+        if (content == null) {
+            return null;
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(RECIPE_HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (content.read(header, header.position()) <= 0) {
+                    System.err.println("Damaged recipe in chunk store: " + filename);
+                    return null;
+                }
+            }
+            return new Entry(filename, recipe, header.getLong(0), header.getInt(Long.BYTES) & 0xffffffffL);
+        } catch (IOException e) {
+            System.err.println(e);
+            return null;
+        } finally {
+            content.release();
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Reads a whole recipe into memory.
+     *
+     *  Returns:
+     *      The recipe, or null if it cannot be read.
+     */
+    private static ByteBuffer read(PackStore.Entry recipe) {
+        Content content = recipe.open();
+        if (content == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) content.size());
+            while (buffer.hasRemaining()) {
+                if (content.read(buffer, buffer.position()) <= 0) {
+                    return null;
+                }
+            }
+            return buffer.flip();
+        } catch (IOException e) {
+            System.err.println(e);
+            return null;
+        } finally {
+            content.release();
+        }
+    }
+
+    @Override
+    public Iterator<String> names(String after) {
+        return files.names(after);
+    }
+
+    /**
+     * Purpose:
+     *      Splits a file into chunks, stores the chunks the store does not already hold, then stores the file's recipe.
+     *      The data is read through a buffer of READ_BUFFER_SIZE bytes.
+     *
+     * NOTES:
+     *      Adds are serialized, so two files sharing a new chunk do not both store it.
+     */
+    @Override
+    public synchronized Entry add(String filename, FileChannel source, long length, long modified) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream chunkList = new ByteArrayOutputStream();
+        DataOutputStream recipe = new DataOutputStream(chunkList);
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int start = 0;
+        int filled = 0;
+        long read = 0;
+        while (true) {
+            if (filled - start < MAX_CHUNK && read < length) {
+                System.arraycopy(buffer, start, buffer, 0, filled - start);
+                filled -= start;
+                start = 0;
+                while (filled < buffer.length && read < length) {
+                    int done = source.read(ByteBuffer.wrap(buffer, filled, (int) Math.min(buffer.length - filled, length - read)), read);
+                    if (done == -1) {
+                        throw new EOFException("Source ended after " + read + " of " + length + " bytes: " + filename);
+                    }
+                    filled += done;
+                    read += done;
+                }
+            }
+            if (start == filled) {
+                break;
+            }
+            int size = cut(buffer, start, filled - start);
+            crc.update(buffer, start, size);
+            sha256.update(buffer, start, size);
+            byte[] digest = sha256.digest();
+            String name = hex(digest);
+            if (chunks.get(name) == null) {
+                chunks.add(name, buffer, start, size, 0);
+                chunksAdded++;
+            } else {
+                chunksShared++;
+                bytesShared += size;
+            }
+            recipe.write(digest);
+            recipe.writeInt(size);
+            start += size;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECIPE_HEADER_SIZE);
+        header.putLong(length).putInt((int) crc.getValue());
+        ByteArrayOutputStream whole = new ByteArrayOutputStream(RECIPE_HEADER_SIZE + chunkList.size());
+        whole.write(header.array());
+        chunkList.writeTo(whole);
+        byte[] bytes = whole.toByteArray();
+        PackStore.Entry stored = files.add(filename, bytes, 0, bytes.length, modified);
+        return new Entry(filename, stored, length, crc.getValue());
+    }
+
+    /**
+     * Purpose:
+     *      Finds where the next chunk ends with FastCDC.
+     *
+     *  @param data : The array holding the data.
+     *  @param offset : The offset of the start of the chunk.
+     *  @param length : The number of bytes available from offset, all that remain of the file if fewer than MAX_CHUNK.
+     *
+     *  Returns:
+     *      The length of the chunk.
+     */
+    static int cut(byte[] data, int offset, int length) {
+        if (length <= MIN_CHUNK) {
+            return length;
+        }
+        int limit = Math.min(length, MAX_CHUNK);
+        int normal = Math.min(limit, AVERAGE_CHUNK);
+        long hash = 0;
+        int i = MIN_CHUNK;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder text = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            text.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Purpose:
+     *      Deletes the recipe of a file. Its chunks are kept, as other files may share them.
+     */
+    @Override
+    public synchronized boolean delete(String filename) throws IOException {
+        return files.delete(filename);
+    }
+
+    /**
+     * Purpose:
+     *      Forces the chunks, then the recipes, to the disk, so no recipe reaches the disk before its chunks.
+     */
+    @Override
+    public synchronized void force() throws IOException {
+        chunks.force();
+        files.force();
+    }
+
+    @Override
+    public void checkpoint() throws IOException {
+        chunks.checkpoint();
+        files.checkpoint();
+    }
+
+    /**
+     * Purpose:
+     *      Starts the compactor of the recipes. Chunks are never replaced, so their store has nothing to compact.
+     */
+    @Override
+    public void startCompactor(int interval, long rate) {
+        files.startCompactor(interval, rate);
+    }
+
+    /**
+     * Purpose:
+     *      Returns the chunks stored and found already stored by the adds since the store was opened, followed by the
+     *      counters of the recipe and chunk pack stores.
+     */
+    @Override
+    public synchronized String stats() {
+        return String.format("chunksAdded=%d chunksShared=%d bytesShared=%d files: %s chunks: %s",
+            chunksAdded, chunksShared, bytesShared, files.stats(), chunks.stats());
+    }
+}
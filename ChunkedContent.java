@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Purpose:
+ *      Content made of a sequence of chunks, each itself a Content, sent one after the other as if they were one file,
+ *      e.g. a file of a ChunkStore whose chunks are regions of the segments of a PackStore. Transfers go to each chunk in
+ *      turn, so the chunks are still sent with transferTo and the file is never assembled in memory.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class ChunkedContent implements Content {
+
+    private final Content[] chunks;
+    private final long[] starts;
+    private final long size;
+    private final long checksum;
+
+    /**
+     * Constructor
+     * @param chunks   : the contents of the chunks in order, released with this content
+     * @param checksum : CRC32 checksum of the whole file
+     */
+    public ChunkedContent(Content[] chunks, long checksum) {
+        this.chunks = chunks;
+        this.starts = new long[chunks.length];
+        long position = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            starts[i] = position;
+            position += chunks[i].size();
+        }
+        this.size = position;
+        this.checksum = checksum;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long done = 0;
+        count = Math.min(count, size - position);
+        for (int i = chunk(position); done < count && i < chunks.length; i++) {
+            long at = position + done - starts[i];
+            long wanted = Math.min(count - done, chunks[i].size() - at);
+            long sent = chunks[i].transferTo(at, wanted, target);
+            done += sent;
+            if (sent < wanted) {
+                break;
+            }
+        }
+        return done;
+    }
+
+    @Override
+    public int read(ByteBuffer target, long position) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        int done = 0;
+        for (int i = chunk(position); target.hasRemaining() && i < chunks.length; i++) {
+            long at = position + done - starts[i];
+            while (target.hasRemaining() && at < chunks[i].size()) {
+                int read = chunks[i].read(target, at);
+                if (read <= 0) {
+                    return done;
+                }
+                at += read;
+                done += read;
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Purpose:
+     *      Returns the index of the chunk holding the byte at a position, or the number of chunks past the end.
+     */
+    private int chunk(long position) {
+        int found = Arrays.binarySearch(starts, position);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    @Override
+    public long checksum() {
+        return checksum;
+    }
+
+    @Override
+    public void release() {
+        for (Content chunk : chunks) {
+            chunk.release();
+        }
+    }
+}
@@ -1,7 +1,21 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.zip.CRC32;
 
 /**
  * Purpose:
@@ -16,46 +30,158 @@ public class Client {
     private static final byte[] NOT_FOUND = "N".getBytes();
     private static final byte[] INVALID_SYMBOL = "I".getBytes();
     private static final byte[] READY = "R".getBytes();
+    private static final byte[] BUSY = "B".getBytes();
+    private static final byte[] PARTIAL = "P".getBytes();
+    private static final byte[] ENTRY = "F".getBytes();
+    private static final byte[] END = "E".getBytes();
+    private static final String BATCH = "/BATCH";
+    private static final String GLOB = "/GLOB ";
+    private static final byte[] METADATA = "M".getBytes();
+    private static final String STAT = "/STAT ";
+    private static final byte[] NOT_MODIFIED = "U".getBytes();
+    private static final String IF_NONE_MATCH = "/IFNONE ";
+    private static final byte[] MORE = "C".getBytes();
+    private static final String LIST = "/LIST ";
+    private static final int LIST_PAGE_SIZE = 1000;
+    private static final byte[] FAILED = "X".getBytes();
+    private static final String PUT = "/PUT ";
+    private static final int UPLOAD_BUFFER_SIZE = 64 * 1024;
+    private static final String RANGE = "/RANGE ";
+    private static final String PART = ".part";
+    private static final int CHECK_BUFFER_SIZE = 64 * 1024;
+    private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int SEGMENT_BUFFER_SIZE = 64 * 1024;
+    private static final String HELLO = "/HELLO ";
+    private static final int VERSION = 2;
     private static final int BUFFER_SIZE = 1024;
+    private static final long PROGRESS_SIZE = 1024 * 1024;
+    private static final String MUX = "/MUX";
+    private static final byte OPEN = 'O';
+    private static final byte WINDOW = 'W';
+    private static final byte HEADER = 'H';
+    private static final byte DATA = 'D';
+    private static final int MUX_WINDOW = 256 * 1024;
+    private static final int MUX_CHUNK_SIZE = 16 * 1024;
 
     protected String serverName;
     protected int serverPort;
-    protected String filename;
+    protected String[] filenames;
+    protected int pipelineDepth = 32;
+    protected int segments = 4;
+    protected boolean conditional = true;
+
+    /**
+     *  Purpose:
+     *      A file being received on a multiplexed connection: the local part file it is written to, its length and checksum as
+     *      announced by the server, and the bytes received so far and not yet acknowledged with a WINDOW frame.
+     */
+    private static class Stream {
+        final String filename;
+        RandomAccessFile file;
+        CRC32 crc = new CRC32();
+        long length;
+        long checksum;
+        long received;
+        int unacknowledged;
+
+        Stream(String filename) {
+            this.filename = filename;
+        }
+    }
 
     /**
      *  Constructor
      *  @param serverName = IP address of server to connect to
      *  @param serverPort = port of server to connect to
-     *  @param filename   = name of file to retrieve from the server
+     *  @param filenames  = names of the files to retrieve from the server
      */
-    public Client(String serverName, int serverPort, String filename) {
+    public Client(String serverName, int serverPort, String... filenames) {
         this.serverName = serverName;
         this.serverPort = serverPort;
-        this.filename = filename;
+        this.filenames = filenames;
     }
 
     /**
      *  Purpose:
      *      Writes file data received from server to a file of the same name in the working directory, requested in chunks of 
-     *      BUFFER_SIZE until the value returned from read equals -1. If an error occurs with writing the file, the program closes.
+     *      BUFFER_SIZE until count bytes have been read. The data is written into filename + PART, set to the full size of
+     *      the file, starting at offset; for a resumed transfer the bytes before offset are the ones already in the part
+     *      file. The CRC32 checksum of the whole file is compared with the one sent by the server, and the part file is
+     *      then renamed to filename. When the output is a terminal, the percentage received so far is shown for files of
+     *      at least PROGRESS_SIZE bytes.
+     *      If the transfer is interrupted the part file is cut to the bytes received, so the next request for the file
+     *      resumes from there (see request). If an error occurs with writing the file, the program closes.
      * 
      *  @param filename  = name of the file to write.
-     *  @param in        = BufferedInputStream with an established connection to the server.
+     *  @param in        = InputStream with an established connection to the server.
+     *  @param size      = size of the whole file in bytes.
+     *  @param offset    = offset in the file of the first byte received.
+     *  @param count     = number of bytes received.
+     *  @param checksum  = CRC32 checksum of the whole file.
      * 
      *  NOTES:
-     *  @exception IOException : when something goes wrong when reading from the connection or writing to the file.
+     *      A part file whose checksum does not match, e.g. because the file changed on the server since the transfer
+     *      was interrupted, is deleted so the next request fetches the file from the start.
+     *  @exception IOException : when something goes wrong when reading from the connection or writing to the file, or the
+     *      checksum of the file does not match.
+     *  @exception EOFException : when the connection is closed before count bytes have been read, or the part file is
+     *      shorter than offset.
      * 
      */
-    private void writeFile(String filename, BufferedInputStream in){
-        try(
-            BufferedOutputStream outFile = new BufferedOutputStream( new FileOutputStream(filename), BUFFER_SIZE);
-        ){
+    private void writeFile(String filename, InputStream in, long size, long offset, long count, long checksum){
+        File part = new File(filename + PART);
+        try{
+            CRC32 crc = new CRC32();
             byte[] buffer = new byte[BUFFER_SIZE];
-            int done;
+            long received = 0;
+            try(
+                RandomAccessFile file = new RandomAccessFile(part, "rw");
+            ){
+                byte[] check = new byte[CHECK_BUFFER_SIZE];
+                long checked = 0;
+                int done;
+                while(checked < offset && (done = file.read(check, 0, (int) Math.min(check.length, offset - checked))) != -1){
+                    crc.update(check, 0, done);
+                    checked += done;
+                }
+                if(checked < offset){
+                    throw new EOFException("Partial file shorter than " + offset + " bytes: " + part);
+                }
+                file.setLength(size);
+                file.seek(offset);
+                BufferedOutputStream outFile = new BufferedOutputStream(Channels.newOutputStream(file.getChannel()), BUFFER_SIZE);
+                boolean progress = System.console() != null && size >= PROGRESS_SIZE;
+                int shown = -1;
 
-            while((done = in.read( buffer)) != -1){
-                outFile.write(buffer, 0, done);
+                try{
+                    while(received < count && (done = in.read( buffer, 0, (int) Math.min(buffer.length, count - received))) != -1){
+                        outFile.write(buffer, 0, done);
+                        crc.update(buffer, 0, done);
+                        received += done;
+                        int percent = (int) ((offset + received) * 100 / size);
+                        if(progress && percent != shown){
+                            System.out.print("\r" + filename + " " + percent + "%");
+                            shown = percent;
+                        }
+                    }
+                    if(progress){
+                        System.out.println();
+                    }
+                } finally {
+                    outFile.flush();
+                    if(received < count){
+                        file.setLength(offset + received);
+                    }
+                }
             }
+            if(received < count){
+                throw new EOFException("Connection closed after " + (offset + received) + " of " + size + " bytes: " + filename);
+            }
+            if(crc.getValue() != checksum){
+                part.delete();
+                throw new IOException("Checksum mismatch: " + filename);
+            }
+            Files.move(part.toPath(), Paths.get(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             
         } catch (IOException e){
             System.err.println(e);
@@ -65,44 +191,568 @@ public class Client {
 
     /**
      *  Purpose:
-     *      Establish a connection to the server and send the filename to retrieve from the server, followed by a newline. 
-     *      If the response received from server is;
-     *            - READY : Calls writeFile to retrieve and write the files data.
-     *            - NOT_FOUND : Displays file not found message and closes the connection.
-     *            - INVALID_SYMBOL : Displays an invalid symbol message and closes the connection.
+     *      Returns the request line for a file: a range request for the rest of the file when a part file of it is left
+     *      from an interrupted transfer, so the transfer resumes where it stopped; a conditional request carrying the
+     *      checksum of the local copy when the file has already been retrieved, so the server only sends it again if it
+     *      has changed; otherwise the filename. When conditional is false every file is requested whole by its filename.
+     * 
+     *  @param filename  = name of the file to retrieve.
+     * 
+     *  NOTES:
+     *      A local copy that cannot be read is requested again in full.
+     */
+    private String request(String filename){
+        if(!conditional){
+            return filename;
+        }
+        File part = new File(filename + PART);
+        if(part.length() > 0){
+            return RANGE + part.length() + " -1 " + filename;
+        }
+        File local = new File(filename);
+        if(local.isFile()){
+            try(
+                FileChannel file = FileChannel.open(local.toPath());
+            ){
+                return IF_NONE_MATCH + String.format("%08x", checksum(file)) + " " + filename;
+            } catch(IOException e){
+                System.err.println(e);
+            }
+        }
+        return filename;
+    }
+
+    /**
+     *  Purpose:
+     *      Reads the server's response to the request for a file and handles it;
+     *            - READY : Reads the length and checksum of the file and calls writeFile to retrieve and write the files data.
+     *            - PARTIAL : Reads the size of the file, the offset and length of the part sent and the checksum of the file,
+     *              and calls writeFile to retrieve and write that part.
+     *            - otherwise : Displays the message for the flag (see report).
+     * 
+     *  @param filename  = name of the file requested.
+     *  @param in        = DataInputStream with an established connection to the server.
+     * 
+     *  Returns:
+     *      The response flag, or -1 if the server closed the connection without answering.
+     * 
+     *  NOTES:
+     *      A keep-alive connection closed by the server may be reset rather than closed when requests were sent after
+     *      the close, so a reset is also reported as -1 and the request can be sent again on a new connection.
+     *  @exception IOException : when an I/O error occurs while reading the file.
+     */
+    private int response(String filename, DataInputStream in) throws IOException {
+        int response;
+        try {
+            response = in.read();
+        } catch(SocketException e){
+            return -1;
+        }
+
+        if(response == READY[0]){
+            long length = in.readLong();
+            long checksum = in.readInt() & 0xffffffffL;
+            writeFile(filename, in, length, 0, length, checksum);
+        }
+        else if(response == PARTIAL[0]){
+            long size = in.readLong();
+            long offset = in.readLong();
+            long count = in.readLong();
+            long checksum = in.readInt() & 0xffffffffL;
+            writeFile(filename, in, size, offset, count, checksum);
+        }
+        else {
+            report(response, filename);
+        }
+        return response;
+    }
+
+    /**
+     *  Purpose:
+     *      Displays the message for a response flag that carries no file;
+     *            - NOT_FOUND : Displays file not found message.
+     *            - INVALID_SYMBOL : Displays an invalid symbol message.
+     *            - BUSY : Displays a server busy message.
+     *            - NOT_MODIFIED : Displays that the local copy is current.
+     * 
+     *  @param response  = the response flag.
+     *  @param filename  = name of the file requested.
+     */
+    private static void report(int response, String filename){
+        if(response == NOT_FOUND[0]){
+            System.out.println("File not found: " + filename);
+        }
+        else if(response == INVALID_SYMBOL[0]){
+            System.out.println("Invalid Symbol in filename: " + filename);
+        }
+        else if(response == BUSY[0]){
+            System.out.println("Server busy, try again later: " + filename);
+        }
+        else if(response == NOT_MODIFIED[0]){
+            System.out.println("Not modified: " + filename);
+        }
+    }
+
+    /**
+     *  Purpose:
+     *      Establish a connection to the server and retrieve each of the files (see response). The connection is opened
+     *      with HELLO and protocol version VERSION, so that the server keeps it alive and sends each file with its length
+     *      and checksum. Requests are pipelined: up to pipelineDepth filenames are sent ahead of the response being read,
+     *      so the server answers them back to back instead of waiting a round trip for each request. The server answers
+     *      in the order the requests were sent.
+     *      If the server closes the connection, e.g. after its maximum number of requests or after answering BUSY, a new
+     *      connection is opened and the requests not yet answered are sent again. A file left partly received by an
+     *      interrupted transfer is requested from where it stopped, and a file already retrieved only if it has changed
+     *      (see request).
      *      Upon error the program closes.
      * 
      *  NOTES:
+     *      The number of requests in flight is bounded so that they always fit in the socket buffers: the server reads
+     *      further requests only as it answers them, so sending every filename before reading could leave both sides
+     *      blocked writing.
      *  @exception UnknownHostException : when the IP of the server could not be determined.
-     *  @exception IOException : when an I/O error occurs when creating the socket.
+     *  @exception IOException : when an I/O error occurs when creating the socket, or when the server closes a new
+     *      connection without answering any request.
      *  @exception SecurityException : when a security manager and its checkConnect method refuses the operation.
      *  @exception IllegalArgumentException : when the port parameter is outside the valid range of port values.
      *      
      */
     public void connect(){
+        int next = 0;
+        while(next < filenames.length){
+            try(
+                Socket socket = new Socket(serverName, serverPort);
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            ){
+                socket.setTcpNoDelay(true);
+                out.println(HELLO + VERSION);
+                int first = next;
+                int sent = next;
+                while(next < filenames.length){
+                    while(sent < filenames.length && sent - next < Math.max(1, pipelineDepth)){
+                        out.println(request(filenames[sent++]));
+                    }
+                    out.flush();
+                    int response = response(filenames[next], in);
+                    if(response == -1){
+                        break;
+                    }
+                    next++;
+                    if(response == BUSY[0]){
+                        break;
+                    }
+                }
+                if(next == first){
+                    throw new EOFException("Connection closed by server before answering: " + filenames[next]);
+                }
+            } catch(UnknownHostException e){
+                System.err.println(e);
+                System.exit(-1);
+            } catch(IOException e){
+                System.err.println(e);
+                System.exit(-2);
+            } catch(SecurityException e){
+                System.err.println(e);
+                System.exit(-3);
+            } catch(IllegalArgumentException e){
+                System.err.println(e);
+                System.exit(-4);
+            }
+        }
+    }
+
+    /**
+     *  Purpose:
+     *      Establish a connection to the server and display the size, modification time and CRC32 checksum of each of the
+     *      files, without retrieving them. The metadata requests are pipelined up to pipelineDepth at a time, as in
+     *      connect.
+     *      Upon error the program closes.
+     * 
+     *  NOTES:
+     *  @exception UnknownHostException : when the IP of the server could not be determined.
+     *  @exception IOException : when an I/O error occurs on the connection, or the server closes it before answering.
+     *  @exception SecurityException : when a security manager and its checkConnect method refuses the operation.
+     *  @exception IllegalArgumentException : when the port parameter is outside the valid range of port values.
+     */
+    public void stat(){
         try(
             Socket socket = new Socket(serverName, serverPort);
-            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
-            BufferedInputStream in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
         ){
-            out.println(filename);
-            byte[] response = new byte[1];
-            in.read(response);
+            socket.setTcpNoDelay(true);
+            out.println(HELLO + VERSION);
+            int sent = 0;
+            for(int next = 0; next < filenames.length; next++){
+                while(sent < filenames.length && sent - next < Math.max(1, pipelineDepth)){
+                    out.println(STAT + filenames[sent++]);
+                }
+                out.flush();
+                int response = in.read();
+                if(response == -1){
+                    throw new EOFException("Connection closed by server before answering: " + filenames[next]);
+                }
+                if(response != METADATA[0]){
+                    report(response, filenames[next]);
+                    continue;
+                }
+                long size = in.readLong();
+                long modified = in.readLong();
+                long checksum = in.readInt() & 0xffffffffL;
+                System.out.println(String.format("%s %d %s %08x", filenames[next], size, Instant.ofEpochMilli(modified), checksum));
+            }
+        } catch(UnknownHostException e){
+            System.err.println(e);
+            System.exit(-1);
+        } catch(IOException e){
+            System.err.println(e);
+            System.exit(-2);
+        } catch(SecurityException e){
+            System.err.println(e);
+            System.exit(-3);
+        } catch(IllegalArgumentException e){
+            System.err.println(e);
+            System.exit(-4);
+        }
+    }
 
-            if(Arrays.equals(response, READY)){
-                writeFile(filename, in);
+    /**
+     *  Purpose:
+     *      Establish a connection to the server and upload each of the files, named by their path on this machine, to
+     *      the server under their own name. Each file is streamed through a buffer of UPLOAD_BUFFER_SIZE bytes after a PUT
+     *      line giving its length, followed by the CRC32 checksum of the data sent, and the server answers with the
+     *      size, modification time and checksum of the file it stored.
+     *      Upon error the program closes.
+     * 
+     *  NOTES:
+     *      The server closes the connection after refusing an upload, e.g. when uploads are disabled, so no further
+     *      files are sent.
+     *  @exception UnknownHostException : when the IP of the server could not be determined.
+     *  @exception IOException : when an I/O error occurs on the connection or while reading a file, or the server closes
+     *      the connection before answering.
+     *  @exception SecurityException : when a security manager and its checkConnect method refuses the operation.
+     *  @exception IllegalArgumentException : when the port parameter is outside the valid range of port values.
+     */
+    public void upload(){
+        try(
+            Socket socket = new Socket(serverName, serverPort);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), UPLOAD_BUFFER_SIZE));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        ){
+            socket.setTcpNoDelay(true);
+            out.write((HELLO + VERSION + "\n").getBytes("UTF-8"));
+            for(String path : filenames){
+                File local = new File(path);
+                if(!local.isFile()){
+                    System.out.println("File not found: " + path);
+                    continue;
+                }
+                try(
+                    FileInputStream file = new FileInputStream(local);
+                ){
+                    long length = file.getChannel().size();
+                    out.write((PUT + length + " " + local.getName() + "\n").getBytes("UTF-8"));
+                    CRC32 crc = new CRC32();
+                    byte[] buffer = new byte[UPLOAD_BUFFER_SIZE];
+                    long sent = 0;
+                    int done;
+                    while(sent < length && (done = file.read(buffer, 0, (int) Math.min(buffer.length, length - sent))) != -1){
+                        out.write(buffer, 0, done);
+                        crc.update(buffer, 0, done);
+                        sent += done;
+                    }
+                    if(sent < length){
+                        throw new EOFException("File shortened while uploading: " + path);
+                    }
+                    out.writeInt((int) crc.getValue());
+                    out.flush();
+                }
+                int response = in.read();
+                if(response == -1){
+                    throw new EOFException("Connection closed by server before answering: " + path);
+                }
+                if(response == METADATA[0]){
+                    long size = in.readLong();
+                    in.readLong();
+                    long checksum = in.readInt() & 0xffffffffL;
+                    System.out.println(String.format("Uploaded: %s %d %08x", local.getName(), size, checksum));
+                }
+                else if(response == FAILED[0]){
+                    System.out.println("Upload failed: " + path);
+                }
+                else {
+                    report(response, local.getName());
+                    return;
+                }
             }
-            else if(Arrays.equals(response, NOT_FOUND)){
-                System.out.println("File not found: " + filename);
+        } catch(UnknownHostException e){
+            System.err.println(e);
+            System.exit(-1);
+        } catch(IOException e){
+            System.err.println(e);
+            System.exit(-2);
+        } catch(SecurityException e){
+            System.err.println(e);
+            System.exit(-3);
+        } catch(IllegalArgumentException e){
+            System.err.println(e);
+            System.exit(-4);
+        }
+    }
+
+    /**
+     *  Purpose:
+     *      Establish a connection to the server and display the name, size, modification time and CRC32 checksum of
+     *      every file it serves. The listing is requested LIST_PAGE_SIZE files at a time, each page starting after the
+     *      name the server gave at the end of the previous one.
+     *      Upon error the program closes.
+     * 
+     *  NOTES:
+     *  @exception UnknownHostException : when the IP of the server could not be determined.
+     *  @exception IOException : when an I/O error occurs on the connection, or the server closes it before the end of
+     *      the listing.
+     *  @exception SecurityException : when a security manager and its checkConnect method refuses the operation.
+     *  @exception IllegalArgumentException : when the port parameter is outside the valid range of port values.
+     */
+    public void list(){
+        try(
+            Socket socket = new Socket(serverName, serverPort);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        ){
+            socket.setTcpNoDelay(true);
+            out.println(HELLO + VERSION);
+            String after = null;
+            while(true){
+                out.println(LIST + LIST_PAGE_SIZE + (after == null ? "" : " " + after));
+                out.flush();
+                int response;
+                while((response = in.read()) == ENTRY[0]){
+                    String filename = name(in);
+                    if(in.read() != METADATA[0]){
+                        throw new IOException("Malformed listing entry from server: " + filename);
+                    }
+                    long size = in.readLong();
+                    long modified = in.readLong();
+                    long checksum = in.readInt() & 0xffffffffL;
+                    System.out.println(String.format("%s %d %s %08x", filename, size, Instant.ofEpochMilli(modified), checksum));
+                }
+                if(response == -1){
+                    throw new EOFException("Connection closed by server during the listing");
+                }
+                if(response != MORE[0]){
+                    if(response != END[0]){
+                        report(response, LIST.trim());
+                    }
+                    return;
+                }
+                after = name(in);
             }
-            else if(Arrays.equals(response, INVALID_SYMBOL)){
-                System.out.println("Invalid Symbol in filename: " + filename);
+        } catch(UnknownHostException e){
+            System.err.println(e);
+            System.exit(-1);
+        } catch(IOException e){
+            System.err.println(e);
+            System.exit(-2);
+        } catch(SecurityException e){
+            System.err.println(e);
+            System.exit(-3);
+        } catch(IllegalArgumentException e){
+            System.err.println(e);
+            System.exit(-4);
+        }
+    }
+
+    /**
+     *  Purpose:
+     *      Establish a connection to the server and retrieve all of the files with one round trip. Each name containing a
+     *      glob character (*, ?, [ or {) is sent as a GLOB request, which the server answers with every file matching it;
+     *      the other names are sent together as one BATCH request, ended by an empty line. The server sends each file
+     *      preceded by an ENTRY header naming it, which is written to the working directory under that name (see
+     *      response), and ends each request with the END flag.
+     *      Upon error the program closes.
+     * 
+     *  NOTES:
+     *      The requests are sent from a thread of their own while the files are read, as the server answers each name
+     *      as it arrives and a long batch could otherwise leave both sides blocked writing.
+     *      A name sent by the server that is not a plain filename is refused, so that the files received cannot be
+     *      written outside the working directory.
+     *  @exception UnknownHostException : when the IP of the server could not be determined.
+     *  @exception IOException : when an I/O error occurs on the connection or while writing a file, when the server
+     *      closes the connection before the end of a request, or when it names a file that is not a plain filename.
+     *  @exception SecurityException : when a security manager and its checkConnect method refuses the operation.
+     *  @exception IllegalArgumentException : when the port parameter is outside the valid range of port values.
+     */
+    public void batch(){
+        List<String> patterns = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for(String filename : filenames){
+            if(filename.matches(".*[*?\\[{].*")){
+                patterns.add(filename);
+            }
+            else {
+                names.add(filename);
+            }
+        }
+        try(
+            Socket socket = new Socket(serverName, serverPort);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        ){
+            socket.setTcpNoDelay(true);
+            Thread sender = new Thread(() -> {
+                out.println(HELLO + VERSION);
+                for(String pattern : patterns){
+                    out.println(GLOB + pattern);
+                }
+                if(!names.isEmpty()){
+                    out.println(BATCH);
+                    for(String name : names){
+                        out.println(name);
+                    }
+                    out.println();
+                }
+                out.flush();
+            }, "batch-sender");
+            sender.setDaemon(true);
+            sender.start();
+
+            int answered = 0;
+            int requests = patterns.size() + (names.isEmpty() ? 0 : 1);
+            while(answered < requests){
+                String request = answered < patterns.size() ? patterns.get(answered) : BATCH;
+                int response = in.read();
+                if(response == -1){
+                    throw new EOFException("Connection closed by server before answering: " + request);
+                }
+                if(response != ENTRY[0]){
+                    if(response != END[0]){
+                        report(response, request);
+                    }
+                    answered++;
+                    continue;
+                }
+                String filename = name(in);
+                if(filename.isEmpty() || filename.equals(".") || filename.equals("..") || filename.contains("/")
+                        || filename.contains(File.separator)){
+                    throw new IOException("Server sent an invalid filename: " + filename);
+                }
+                if(response(filename, in) == -1){
+                    throw new EOFException("Connection closed by server before answering: " + filename);
+                }
+            }
+        } catch(UnknownHostException e){
+            System.err.println(e);
+            System.exit(-1);
+        } catch(IOException e){
+            System.err.println(e);
+            System.exit(-2);
+        } catch(SecurityException e){
+            System.err.println(e);
+            System.exit(-3);
+        } catch(IllegalArgumentException e){
+            System.err.println(e);
+            System.exit(-4);
+        }
+    }
+
+    /**
+     *  Purpose:
+     *      Establish a multiplexed connection to the server (see Multiplexer) and retrieve all of the files over it at
+     *      once. Up to pipelineDepth streams are open at a time, each allowed MUX_WINDOW bytes in flight; the server
+     *      interleaves their chunks, so small files arrive while a large one is still being sent. Each chunk is written
+     *      to its own local file as it arrives, and the stream's window is widened again once half of it has been
+     *      written. Each file is written into filename + PART, set to its full length when its header arrives, and
+     *      moved over filename in one step once it is complete and its checksum verified.
+     *      Upon error the part files of the unfinished streams are deleted and the program closes.
+     * 
+     *  NOTES:
+     *  @exception UnknownHostException : when the IP of the server could not be determined.
+     *  @exception IOException : when an I/O error occurs on the connection or while writing a file, when a checksum does
+     *      not match, or when the server sends a malformed frame.
+     *  @exception SecurityException : when a security manager and its checkConnect method refuses the operation.
+     *  @exception IllegalArgumentException : when the port parameter is outside the valid range of port values.
+     */
+    public void multiplex(){
+        Map<Integer, Stream> streams = new HashMap<>();
+        try(
+            Socket socket = new Socket(serverName, serverPort);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), MUX_CHUNK_SIZE));
+        ){
+            socket.setTcpNoDelay(true);
+            out.write((MUX + "\n").getBytes("UTF-8"));
+            byte[] chunk = new byte[MUX_CHUNK_SIZE];
+            int next = 0;
+            while(next < filenames.length || !streams.isEmpty()){
+                while(next < filenames.length && streams.size() < Math.max(1, pipelineDepth)){
+                    byte[] filename = filenames[next].getBytes("UTF-8");
+                    streams.put(next, new Stream(filenames[next]));
+                    frame(out, OPEN, next, Integer.BYTES + filename.length);
+                    out.writeInt(MUX_WINDOW);
+                    out.write(filename);
+                    next++;
+                }
+                out.flush();
+
+                byte type = in.readByte();
+                if(type == INVALID_SYMBOL[0]){
+                    throw new IOException("Server does not support multiplexed connections");
+                }
+                int id = in.readInt();
+                int length = in.readInt();
+                Stream stream = streams.get(id);
+                if(stream == null || length < 0 || length > MUX_CHUNK_SIZE){
+                    throw new IOException("Malformed frame from server for stream " + id);
+                }
+                if(type == HEADER){
+                    int response = in.readByte();
+                    if(response == READY[0]){
+                        stream.length = in.readLong();
+                        stream.checksum = in.readInt() & 0xffffffffL;
+                        stream.file = new RandomAccessFile(stream.filename + PART, "rw");
+                        stream.file.setLength(stream.length);
+                    }
+                    else {
+                        report(response, stream.filename);
+                    }
+                }
+                else if(type == DATA && stream.file != null){
+                    in.readFully(chunk, 0, length);
+                    stream.file.write(chunk, 0, length);
+                    stream.crc.update(chunk, 0, length);
+                    stream.received += length;
+                    stream.unacknowledged += length;
+                    if(stream.received < stream.length && stream.unacknowledged >= MUX_WINDOW / 2){
+                        frame(out, WINDOW, id, Integer.BYTES);
+                        out.writeInt(stream.unacknowledged);
+                        stream.unacknowledged = 0;
+                    }
+                }
+                else {
+                    throw new IOException("Malformed frame from server for stream " + id);
+                }
+                if(stream.file == null || stream.received >= stream.length){
+                    streams.remove(id);
+                    if(stream.file != null){
+                        stream.file.close();
+                        File part = new File(stream.filename + PART);
+                        if(stream.crc.getValue() != stream.checksum){
+                            part.delete();
+                            throw new IOException("Checksum mismatch: " + stream.filename);
+                        }
+                        Files.move(part.toPath(), Paths.get(stream.filename), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
             }
         } catch(UnknownHostException e){
             System.err.println(e);
             System.exit(-1);
         } catch(IOException e){
             System.err.println(e);
+            discard(streams.values());
             System.exit(-2);
         } catch(SecurityException e){
             System.err.println(e);
@@ -113,16 +763,340 @@ public class Client {
         }
     }
 
+    /**
+     *  Purpose:
+     *      Closes and deletes the part files of multiplexed streams left unfinished.
+     */
+    private static void discard(Collection<Stream> streams){
+        for(Stream stream : streams){
+            if(stream.file != null){
+                try {
+                    stream.file.close();
+                } catch(IOException e){
+                    System.err.println(e);
+                }
+                new File(stream.filename + PART).delete();
+            }
+        }
+    }
+
+    /**
+     *  Purpose:
+     *      Retrieve each of the files in turn, splitting every file of at least 2 * SEGMENT_SIZE bytes into up to segments
+     *      byte ranges fetched at once over connections of their own (see download), so that one large file can use
+     *      more than one TCP stream. The size and checksum of each file are first asked for with an empty range request
+     *      on a keep-alive connection, which also retrieves the files too small to split.
+     *      Upon error the program closes.
+     * 
+     *  NOTES:
+     *  @exception UnknownHostException : when the IP of the server could not be determined.
+     *  @exception IOException : when an I/O error occurs on a connection or while writing a file, or when the server
+     *      closes the connection.
+     *  @exception SecurityException : when a security manager and its checkConnect method refuses the operation.
+     *  @exception IllegalArgumentException : when the port parameter is outside the valid range of port values.
+     */
+    public void segmented(){
+        try(
+            Socket socket = new Socket(serverName, serverPort);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        ){
+            socket.setTcpNoDelay(true);
+            out.println(HELLO + VERSION);
+            for(String filename : filenames){
+                out.println(RANGE + "0 0 " + filename);
+                out.flush();
+                int response = in.read();
+                if(response == -1){
+                    throw new EOFException("Connection closed by server before answering: " + filename);
+                }
+                if(response != PARTIAL[0]){
+                    report(response, filename);
+                    continue;
+                }
+                long size = in.readLong();
+                in.readLong();
+                in.readLong();
+                long checksum = in.readInt() & 0xffffffffL;
+                int count = (int) Math.min(Math.max(1, segments), size / SEGMENT_SIZE);
+                if(count < 2){
+                    out.println(request(filename));
+                    out.flush();
+                    if(response(filename, in) == -1){
+                        throw new EOFException("Connection closed by server before answering: " + filename);
+                    }
+                    continue;
+                }
+                download(filename, size, checksum, count);
+            }
+        } catch(UnknownHostException e){
+            System.err.println(e);
+            System.exit(-1);
+        } catch(IOException e){
+            System.err.println(e);
+            System.exit(-2);
+        } catch(SecurityException e){
+            System.err.println(e);
+            System.exit(-3);
+        } catch(IllegalArgumentException e){
+            System.err.println(e);
+            System.exit(-4);
+        }
+    }
+
+    /**
+     *  Purpose:
+     *      Retrieves a file as count byte ranges of equal size, each fetched by a thread of its own over its own
+     *      connection and written straight to its offset in filename + PART, set to the full size of the file first,
+     *      with positional FileChannel writes. Once every range has arrived the checksum of the whole file is compared
+     *      with the one sent by the server, and the part file is renamed to filename.
+     * 
+     *  @param filename  = name of the file to retrieve.
+     *  @param size      = size of the file in bytes.
+     *  @param checksum  = CRC32 checksum of the file.
+     *  @param count     = number of ranges.
+     * 
+     *  NOTES:
+     *      The part file of a failed download is deleted, as the ranges received are not contiguous and cannot be
+     *      resumed.
+     *  @exception IOException : when fetching a range fails, or the checksum of the file does not match.
+     */
+    private void download(String filename, long size, long checksum, int count) throws IOException {
+        File part = new File(filename + PART);
+        boolean complete = false;
+        try(
+            RandomAccessFile file = new RandomAccessFile(part, "rw");
+        ){
+            file.setLength(size);
+            FileChannel channel = file.getChannel();
+            long length = (size + count - 1) / count;
+            IOException[] errors = new IOException[count];
+            Thread[] workers = new Thread[count];
+            for(int i = 0; i < count; i++){
+                int segment = i;
+                long offset = i * length;
+                workers[i] = new Thread(() -> {
+                    try {
+                        fetch(filename, channel, offset, Math.min(length, size - offset));
+                    } catch(IOException e){
+                        errors[segment] = e;
+                    }
+                }, "segment-" + i);
+                workers[i].start();
+            }
+            for(Thread worker : workers){
+                try {
+                    worker.join();
+                } catch(InterruptedException e){
+                    throw new InterruptedIOException();
+                }
+            }
+            for(IOException error : errors){
+                if(error != null){
+                    throw error;
+                }
+            }
+            if(checksum(channel) != checksum){
+                throw new IOException("Checksum mismatch: " + filename);
+            }
+            complete = true;
+        } finally {
+            if(!complete){
+                part.delete();
+            }
+        }
+        Files.move(part.toPath(), Paths.get(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     *  Purpose:
+     *      Fetches one byte range of a file over a new connection and writes it at its offset in the local file.
+     * 
+     *  @param filename  = name of the file to retrieve.
+     *  @param file      = channel of the local file.
+     *  @param offset    = offset of the range.
+     *  @param length    = length of the range in bytes.
+     * 
+     *  NOTES:
+     *  @exception IOException : when the connection fails, the server does not answer with the range requested, or the
+     *      local file cannot be written.
+     */
+    private void fetch(String filename, FileChannel file, long offset, long length) throws IOException {
+        try(
+            Socket socket = new Socket(serverName, serverPort);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+        ){
+            socket.setTcpNoDelay(true);
+            out.println(HELLO + VERSION);
+            out.println(RANGE + offset + " " + length + " " + filename);
+            out.flush();
+            int response = in.read();
+            if(response != PARTIAL[0]){
+                throw new IOException("Range at " + offset + " of " + filename + " refused by server");
+            }
+            in.readLong();
+            long start = in.readLong();
+            long count = in.readLong();
+            in.readInt();
+            if(start != offset || count != length){
+                throw new IOException("Range at " + offset + " of " + filename + " changed on server");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_BUFFER_SIZE);
+            long received = 0;
+            while(received < length){
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - received));
+                int done = in.read(buffer.array(), 0, buffer.limit());
+                if(done == -1){
+                    throw new EOFException("Connection closed after " + received + " of " + length + " bytes of range at "
+                        + offset + ": " + filename);
+                }
+                buffer.limit(done);
+                while(buffer.hasRemaining()){
+                    file.write(buffer, offset + received + buffer.position());
+                }
+                received += done;
+            }
+        }
+    }
+
+    /**
+     *  Purpose:
+     *      Computes the CRC32 checksum of a whole local file.
+     * 
+     *  @param file      = channel of the file.
+     * 
+     *  NOTES:
+     *  @exception IOException : when the file cannot be read.
+     */
+    private static long checksum(FileChannel file) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHECK_BUFFER_SIZE);
+        long position = 0;
+        int done;
+        while((done = file.read(buffer, position)) != -1){
+            buffer.flip();
+            crc.update(buffer);
+            buffer.clear();
+            position += done;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     *  Purpose:
+     *      Reads a filename sent by the server: its length as 2 bytes in network byte order, then the name in "utf-8".
+     * 
+     *  @param in        = DataInputStream with an established connection to the server.
+     * 
+     *  NOTES:
+     *  @exception IOException : when the connection is closed or fails before the whole name has been read.
+     */
+    private static String name(DataInputStream in) throws IOException {
+        byte[] name = new byte[in.readUnsignedShort()];
+        in.readFully(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static void frame(DataOutputStream out, byte type, int id, int length) throws IOException {
+        out.writeByte(type);
+        out.writeInt(id);
+        out.writeInt(length);
+    }
+
+    /**
+     *  Purpose:
+     *      Retrieves the files named on the command line from the server on this machine. The names may be preceded by
+     *      options;
+     *            --put : upload the files named, by their path, to the server instead (see upload).
+     *            --list : display every file the server has, with its size, modification time and checksum, instead
+     *              (see list). No filenames are needed.
+     *            --stat : display the size, modification time and checksum of the files instead (see stat).
+     *            --batch : retrieve the files with one batch request, names containing glob characters matching
+     *              every file on the server they describe (see batch).
+     *            --mux : retrieve the files over one multiplexed connection (see multiplex).
+     *            --segments=N : split large files into N ranges fetched at once (see segmented).
+     *            --whole : retrieve every file in full, without resuming part files or asking only for changed files.
+     *            -- : ends the options, for filenames starting with "--".
+     *      Without options the files are retrieved over one pipelined connection (see connect).
+     */
     public static void main(String[] args){
         {
-            if (args.length == 0){
-                System.out.println("Requires one argument.");
+            boolean multiplex = false;
+            boolean batch = false;
+            boolean stat = false;
+            boolean list = false;
+            boolean put = false;
+            boolean conditional = true;
+            int segments = 1;
+            int first = 0;
+            for(; first < args.length && args[first].startsWith("--"); first++){
+                if(args[first].equals("--")){
+                    first++;
+                    break;
+                }
+                else if(args[first].equals("--put")){
+                    put = true;
+                }
+                else if(args[first].equals("--list")){
+                    list = true;
+                }
+                else if(args[first].equals("--stat")){
+                    stat = true;
+                }
+                else if(args[first].equals("--batch")){
+                    batch = true;
+                }
+                else if(args[first].equals("--mux")){
+                    multiplex = true;
+                }
+                else if(args[first].equals("--whole")){
+                    conditional = false;
+                }
+                else if(args[first].startsWith("--segments=")){
+                    try {
+                        segments = Integer.parseInt(args[first].substring("--segments=".length()));
+                    } catch(NumberFormatException e){
+                        segments = 0;
+                    }
+                    if(segments < 1){
+                        System.out.println("Invalid number of segments: " + args[first]);
+                        System.exit(0);
+                    }
+                }
+                else {
+                    System.out.println("Unknown option: " + args[first]);
+                    System.exit(0);
+                }
+            }
+            if (first == args.length && !list){
+                System.out.println("Requires at least one argument.");
                 System.exit(0);
             }
-            Client client = new Client("localhost", 12345, args[0]);
-            client.connect();
+            Client client = new Client("localhost", 12345, Arrays.copyOfRange(args, first, args.length));
+            client.segments = segments;
+            client.conditional = conditional;
+            if (put){
+                client.upload();
+            }
+            else if (list){
+                client.list();
+            }
+            else if (stat){
+                client.stat();
+            }
+            else if (batch){
+                client.batch();
+            }
+            else if (multiplex){
+                client.multiplex();
+            }
+            else if (segments > 1){
+                client.segmented();
+            }
+            else {
+                client.connect();
+            }
         }
     }
-}
-
-
+}
\ No newline at end of file
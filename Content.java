@@ -0,0 +1,68 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Purpose:
+ *      The contents of a requested file, ready to be sent: held in memory and shared between transfers, such as a content
+ *      cache entry or a memory mapping, or read from an open file. A transfer holds a reference to the content while it
+ *      writes it and releases it when it is finished, so the memory is not reused or unmapped, and the file not closed,
+ *      while it is still being sent.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public interface Content {
+
+    /**
+     * Purpose:
+     *      Returns the size of the file in bytes.
+     */
+    long size();
+
+    /**
+     * Purpose:
+     *      Writes up to count bytes of the file, starting at position, to the target channel. A blocking target receives
+     *      all of them; a non-blocking target receives as many as it accepts without blocking.
+     *
+     *  @param position : Offset in the file of the first byte to write.
+     *  @param count : Maximum number of bytes to write.
+     *  @param target : The channel to write to.
+     *
+     *  Returns:
+     *      The number of bytes written.
+     *
+     *  @exception IOException : when an I/O error occurs while reading the file or writing to the target.
+     */
+    long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+    /**
+     * Purpose:
+     *      Copies bytes of the file, starting at position, into the target buffer until it is full or the file ends.
+     *
+     *  @param target : The buffer to copy into.
+     *  @param position : Offset in the file of the first byte to copy.
+     *
+     *  Returns:
+     *      The number of bytes copied, or -1 if position is at or beyond the end of the file.
+     *
+     *  @exception IOException : when an I/O error occurs while reading the file.
+     */
+    int read(ByteBuffer target, long position) throws IOException;
+
+    /**
+     * Purpose:
+     *      Returns the CRC32 checksum of the whole file. It is computed the first time it is needed and remembered for as
+     *      long as the contents are, so a file is only read for its checksum once between changes.
+     *
+     *  @exception IOException : when an I/O error occurs while reading the file, or the file is shorter than its size.
+     */
+    long checksum() throws IOException;
+
+    /**
+     * Purpose:
+     *      Releases the reference taken for the transfer. The content must not be used afterwards.
+     */
+    void release();
+}
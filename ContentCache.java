@@ -0,0 +1,399 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Purpose:
+ *      In-memory cache of file contents keyed by filename, bounded by a total size in bytes. Cached contents are held in
+ *      immutable ByteBuffers; every request gets its own read-only view, so one entry can be written to any number of
+ *      sockets at once without copying.
+ *
+ *      Entries are admitted and evicted with the W-TinyLFU policy: new entries go into a small LRU window, and an entry
+ *      leaving the window only enters the main space if it has been requested more often than the entry it would
+ *      replace, according to a compact frequency sketch of recent requests. A one-off scan therefore passes through the
+ *      window without evicting popular files. The main space is a segmented LRU: entries requested again while on
+ *      probation are promoted to the protected segment.
+ *
+ *      The contents are held on the Java heap, or with offHeap in slots of direct memory from a SlabAllocator, so that a
+ *      cache of several gigabytes does not add to garbage collection work. Slots are reused once their entry has been
+ *      evicted and every transfer of it has finished, which is why entries are reference counted like MappedFiles.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class ContentCache {
+
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.80;
+    private static final int AVERAGE_ENTRY_SIZE = 16 * 1024;
+
+    private enum Region { WINDOW, PROBATION, PROTECTED }
+
+    /**
+     * Purpose:
+     *      A cached file, with the size and modification time it had when it was read. The cache holds one reference to
+     *      the entry and each transfer holds one while it writes; the entry's slot is freed when the last is released.
+     */
+    private class Entry extends BufferContent {
+        final String filename;
+        final ByteBuffer data;
+        final SlabAllocator.Slot slot;
+        final long size;
+        final long modified;
+        final AtomicInteger references = new AtomicInteger(1);
+        Region region = Region.WINDOW;
+
+        Entry(String filename, ByteBuffer data, SlabAllocator.Slot slot, long size, long modified) {
+            this.filename = filename;
+            this.data = data;
+            this.slot = slot;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        @Override
+        protected ByteBuffer buffer() {
+            return data;
+        }
+
+        Entry retain() {
+            references.incrementAndGet();
+            return this;
+        }
+
+        @Override
+        public void release() {
+            if (references.decrementAndGet() == 0 && slot != null) {
+                slabs.free(slot);
+            }
+        }
+    }
+
+    private final String directory;
+    private final long maxEntrySize;
+    private final long windowCapacity;
+    private final long protectedCapacity;
+    private final long mainCapacity;
+    private final FrequencySketch sketch;
+    private final SlabAllocator slabs;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>();
+    private long windowSize;
+    private long probationSize;
+    private long protectedSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param directory    : directory the requested files are in
+     * @param capacity     : total size in bytes of the cached contents
+     * @param maxEntrySize : size in bytes above which files are not cached
+     * @param offHeap      : whether the contents are held in direct memory rather than on the Java heap
+     */
+    public ContentCache(String directory, long capacity, long maxEntrySize, boolean offHeap) {
+        this.directory = directory;
+        this.windowCapacity = Math.max(1, (long) (capacity * WINDOW_SHARE));
+        this.mainCapacity = capacity - windowCapacity;
+        this.protectedCapacity = (long) (mainCapacity * PROTECTED_SHARE);
+        this.maxEntrySize = Math.min(maxEntrySize, mainCapacity);
+        this.sketch = new FrequencySketch(capacity / AVERAGE_ENTRY_SIZE);
+        this.slabs = offHeap ? new SlabAllocator(capacity, (int) this.maxEntrySize) : null;
+    }
+
+    /**
+     * Purpose:
+     *      Returns the contents of the requested file, from the cache when the cached copy is still current, otherwise
+     *      read from disk and offered to the cache. The caller must release the content when its transfer is finished.
+     *
+     *  @param filename : The name of the requested file.
+     *  @param size : The current size of the file in bytes.
+     *  @param modified : The current modification time of the file, in milliseconds since the epoch.
+     *
+     *  Returns:
+     *      The file contents, or null when the file is larger than maxEntrySize, there is no off-heap memory for it, or
+     *      it got shorter than size while it was read, and it should be streamed from disk instead.
+     *
+     *  @exception IOException : when the file does not exist or cannot be read.
+     */
+    public Content get(String filename, long size, long modified) throws IOException {
+        Path path = Paths.get(directory, filename);
+        Entry entry;
+        synchronized (this) {
+            sketch.increment(filename.hashCode());
+            entry = entries.get(filename);
+            if (entry != null && entry.size == size && entry.modified == modified) {
+                hits.incrementAndGet();
+                onHit(entry);
+                return entry.retain();
+            }
+            if (entry != null) {
+                remove(entry);
+            }
+            misses.incrementAndGet();
+            if (size > maxEntrySize) {
+                return null;
+            }
+            entry = allocate(filename, size, modified);
+            if (entry == null) {
+                return null;
+            }
+        }
+        try {
+            read(path, entry.data.duplicate());
+        } catch (EOFException e) {
+            entry.release();
+            return null;
+        } catch (IOException e) {
+            entry.release();
+            throw e;
+        }
+        synchronized (this) {
+            if (!entries.containsKey(filename)) {
+                add(entry.retain());
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Purpose:
+     *      Removes a file from the cache, for example because it has changed or been deleted.
+     *
+     *  @param filename : The name of the file.
+     */
+    public synchronized void invalidate(String filename) {
+        Entry entry = entries.get(filename);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Returns the cache counters: hits, misses, entries evicted to make room, and entries rejected by the admission
+     *      policy, with the number and total size of the cached entries.
+     */
+    public synchronized String stats() {
+        return String.format("cacheHits=%d cacheMisses=%d cacheEvictions=%d cacheRejections=%d cacheEntries=%d cacheBytes=%d",
+            hits.get(), misses.get(), evictions.get(), rejections.get(), entries.size(), windowSize + probationSize + protectedSize)
+            + (slabs == null ? "" : " " + slabs.stats());
+    }
+
+    /**
+     * Purpose:
+     *      Creates an entry with memory for size bytes, on the heap or from the slab allocator. When the slot's size class
+     *      is full, least recently used entries of the same class are evicted to make room, as long as the new file has
+     *      been requested more often than each of them.
+     *
+     *  Returns:
+     *      The entry, with one reference for the caller, or null when no memory could be found for it.
+     */
+    private Entry allocate(String filename, long size, long modified) {
+        if (slabs == null) {
+            return new Entry(filename, ByteBuffer.allocate((int) size), null, size, modified);
+        }
+        SlabAllocator.Slot slot;
+        int sizeClass = slabs.sizeClass(size);
+        int frequency = sketch.frequency(filename.hashCode());
+        while ((slot = slabs.allocate(size)) == null) {
+            Entry victim = leastRecent(sizeClass);
+            if (victim == null || sketch.frequency(victim.filename.hashCode()) >= frequency) {
+                rejections.incrementAndGet();
+                return null;
+            }
+            remove(victim);
+            evictions.incrementAndGet();
+        }
+        return new Entry(filename, slot.buffer, slot, size, modified);
+    }
+
+    /**
+     * Purpose:
+     *      Returns the least recently used entry in the given slab size class, looking in probation, then the window, then
+     *      the protected segment.
+     */
+    private Entry leastRecent(int sizeClass) {
+        for (LinkedHashMap<String, Entry> segment : Arrays.asList(probation, window, protectedSegment)) {
+            for (Entry entry : segment.values()) {
+                if (entry.slot.sizeClass == sizeClass) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void read(Path path, ByteBuffer data) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (data.hasRemaining() && file.read(data, data.position()) >= 0) {
+            }
+        }
+        if (data.hasRemaining()) {
+            throw new EOFException("file ended after " + data.position() + " of " + data.limit() + " bytes: " + path);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Moves a requested entry to the most recently used end of its segment, promoting it from probation to the
+     *      protected segment. Entries pushed out of a full protected segment go back to probation.
+     */
+    private void onHit(Entry entry) {
+        switch (entry.region) {
+            case WINDOW:
+                window.remove(entry.filename);
+                window.put(entry.filename, entry);
+                break;
+            case PROBATION:
+                probation.remove(entry.filename);
+                probationSize -= entry.size;
+                entry.region = Region.PROTECTED;
+                protectedSegment.put(entry.filename, entry);
+                protectedSize += entry.size;
+                while (protectedSize > protectedCapacity) {
+                    Entry demoted = first(protectedSegment);
+                    protectedSegment.remove(demoted.filename);
+                    protectedSize -= demoted.size;
+                    demoted.region = Region.PROBATION;
+                    probation.put(demoted.filename, demoted);
+                    probationSize += demoted.size;
+                }
+                break;
+            case PROTECTED:
+                protectedSegment.remove(entry.filename);
+                protectedSegment.put(entry.filename, entry);
+                break;
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Adds a new entry to the window. Entries pushed out of a full window become candidates for the main space.
+     */
+    private void add(Entry entry) {
+        entries.put(entry.filename, entry);
+        window.put(entry.filename, entry);
+        windowSize += entry.size;
+        while (windowSize > windowCapacity) {
+            Entry candidate = first(window);
+            window.remove(candidate.filename);
+            windowSize -= candidate.size;
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Admits a candidate leaving the window into probation if there is room, or if it has been requested more often
+     *      than each of the least recently used main entries it would replace. Otherwise the candidate is dropped.
+     */
+    private void admit(Entry candidate) {
+        int frequency = sketch.frequency(candidate.filename.hashCode());
+        while (probationSize + protectedSize + candidate.size > mainCapacity) {
+            Entry victim = probation.isEmpty() ? first(protectedSegment) : first(probation);
+            if (sketch.frequency(victim.filename.hashCode()) >= frequency) {
+                entries.remove(candidate.filename);
+                candidate.release();
+                rejections.incrementAndGet();
+                return;
+            }
+            remove(victim);
+            evictions.incrementAndGet();
+        }
+        candidate.region = Region.PROBATION;
+        probation.put(candidate.filename, candidate);
+        probationSize += candidate.size;
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.filename);
+        entry.release();
+        switch (entry.region) {
+            case WINDOW:
+                window.remove(entry.filename);
+                windowSize -= entry.size;
+                break;
+            case PROBATION:
+                probation.remove(entry.filename);
+                probationSize -= entry.size;
+                break;
+            case PROTECTED:
+                protectedSegment.remove(entry.filename);
+                protectedSize -= entry.size;
+                break;
+        }
+    }
+
+    private static Entry first(LinkedHashMap<String, Entry> segment) {
+        return segment.values().iterator().next();
+    }
+
+    /**
+     * Purpose:
+     *      Count-min sketch of how often each filename has been requested recently, with four 4-bit counters per
+     *      filename. After ten recorded requests per row of the table, every counter is halved so that old popularity
+     *      fades.
+     */
+    private static class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int rows = Integer.highestOneBit((int) Math.max(64, Math.min(expectedEntries, 1 << 24)) - 1) << 1;
+            table = new long[rows];
+            sampleSize = 10 * rows;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = index(hash, i);
+                int offset = offset(hash, i);
+                if (((table[index] >>> offset) & 0xfL) != 0xfL) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, (int) ((table[index(hash, i)] >>> offset(hash, i)) & 0xfL));
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & (table.length - 1);
+        }
+
+        private static int offset(int hash, int i) {
+            return (((hash >>> (i * 8)) & 3) << 2) + (i << 4) & 63;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Purpose:
+ *      In-memory index of the files in the served directory: name, size and modification time, and a shared open
+ *      FileChannel for each file once it has been requested. The names are also kept in sorted order, so the directory
+ *      can be listed a page at a time from any name without copying the whole index. The index is built when the server starts and kept current
+ *      by a thread watching the directory with a WatchService, so existence checks and size lookups are answered from
+ *      memory and the filesystem is only touched to read file data.
+ *
+ *      When checksums are enabled, the CRC32 checksum of every file is computed by a background thread as soon as the
+ *      file is indexed or changes, so requests find it ready instead of reading the whole file first.
+ *
+ *      Listeners registered with addListener are told the name of every file created, changed or deleted, so that
+ *      caches of file contents can drop stale copies.
+ *
+ * NOTES:
+ *      At most maxHandles channels are kept open; files requested beyond that are opened for each transfer.
+ *      Changes are applied when the watch event arrives, shortly after the file is written.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class DirectoryIndex {
+
+    private final Path directory;
+    private final int maxHandles;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger openHandles = new AtomicInteger();
+    private final ExecutorService hasher;
+
+    /**
+     * Purpose:
+     *      A file in the directory, as it was when last seen by the index. The index holds one reference to the entry and
+     *      each transfer from its shared channel holds one; the channel is closed when the entry has been replaced or
+     *      removed and the last transfer has finished.
+     */
+    public class Entry {
+        public final String filename;
+        public final long size;
+        public final long modified;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final AtomicLong checksum = new AtomicLong(-1);
+        private FileChannel handle;
+
+        Entry(String filename, long size, long modified, long checksum) {
+            this.filename = filename;
+            this.size = size;
+            this.modified = modified;
+            this.checksum.set(checksum);
+        }
+
+        /**
+         * Purpose:
+         *      Opens the file for one transfer, using the entry's shared channel, which is opened the first time it is
+         *      needed. When the maximum number of shared channels are open, or the entry is no longer current, the file
+         *      is opened for this transfer only. Either way the file's checksum is computed once for the entry.
+         *
+         *  Returns:
+         *      The file contents. The caller must release them when the transfer is finished.
+         *
+         *  @exception IOException : when the file cannot be opened.
+         */
+        public Content open() throws IOException {
+            FileChannel shared = shared();
+            if (shared != null) {
+                return new FileContent(shared, size, this::release, checksum);
+            }
+            FileChannel file = FileChannel.open(directory.resolve(filename), StandardOpenOption.READ);
+            return new FileContent(file, size, () -> close(file), checksum);
+        }
+
+        /**
+         * Purpose:
+         *      Returns the CRC32 checksum of the file. It is computed by reading the file the first time it is needed,
+         *      here or by a transfer of the file, and kept until the entry is replaced.
+         *
+         *  @exception IOException : when the file cannot be read.
+         */
+        public long checksum() throws IOException {
+            long value = checksum.get();
+            if (value >= 0) {
+                return value;
+            }
+            Content content = open();
+            try {
+                return content.checksum();
+            } finally {
+                content.release();
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Computes the checksum of the file ahead of any request for it, reading the file through a channel of its
+         *      own so that the shared channels are left for transfers. Nothing is done if the checksum is already known
+         *      or the entry has been replaced in the meantime.
+         */
+        private void precompute() {
+            if (checksum.get() >= 0 || entries.get(filename) != this) {
+                return;
+            }
+            try (FileChannel file = FileChannel.open(directory.resolve(filename), StandardOpenOption.READ)) {
+                new FileContent(file, size, () -> { }, checksum).checksum();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+
+        private synchronized FileChannel shared() throws IOException {
+            if (!retain()) {
+                return null;
+            }
+            if (handle == null) {
+                if (openHandles.incrementAndGet() > maxHandles) {
+                    openHandles.decrementAndGet();
+                    release();
+                    return null;
+                }
+                try {
+                    handle = FileChannel.open(directory.resolve(filename), StandardOpenOption.READ);
+                } catch (IOException e) {
+                    openHandles.decrementAndGet();
+                    release();
+                    throw e;
+                }
+            }
+            return handle;
+        }
+
+        private boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                synchronized (this) {
+                    if (handle != null) {
+                        close(handle);
+                        handle = null;
+                        openHandles.decrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     * @param directory  : the directory to index
+     * @param maxHandles : maximum number of files kept open
+     * @param checksums  : whether the checksum of each file is computed in the background when it is indexed
+     *
+     * @exception IOException : when the directory cannot be read or watched.
+     */
+    public DirectoryIndex(String directory, int maxHandles, boolean checksums) throws IOException {
+        this.directory = Paths.get(directory);
+        this.maxHandles = maxHandles;
+        this.hasher = checksums ? Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "directory-checksums");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        WatchService watcher = this.directory.getFileSystem().newWatchService();
+        this.directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+        scan();
+        Thread thread = new Thread(() -> watch(watcher), "directory-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Purpose:
+     *      Looks up a file in the index.
+     *
+     *  @param filename : The name of the requested file.
+     *
+     *  Returns:
+     *      The entry of the file, or null if the directory has no such file.
+     */
+    public Entry get(String filename) {
+        return entries.get(filename);
+    }
+
+    /**
+     * Purpose:
+     *      Returns the names of the files in the index, in sorted order. The set is a live view, which may be iterated
+     *      while files are created and deleted; a name may briefly be listed after its entry has been removed.
+     */
+    public NavigableSet<String> names() {
+        return Collections.unmodifiableNavigableSet(names);
+    }
+
+    /**
+     * Purpose:
+     *      Brings the entry of a file up to date straight away, without waiting for the watch event, e.g. after the
+     *      server has written the file itself. Listeners are told of the change as usual.
+     *
+     *  @param filename : The name of the file.
+     *  @param checksum : The CRC32 checksum of the file's contents if known, otherwise -1, in which case it is computed
+     *                    as for any other change.
+     */
+    public void update(String filename, long checksum) {
+        refresh(filename, checksum);
+    }
+
+    /**
+     * Purpose:
+     *      Registers a listener to be given the name of every file created, changed or deleted.
+     *
+     *  @param listener : The listener.
+     */
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Purpose:
+     *      Returns the index counters: files indexed and shared channels open.
+     */
+    public String stats() {
+        return String.format("indexEntries=%d openHandles=%d", entries.size(), openHandles.get());
+    }
+
+    /**
+     * Purpose:
+     *      Reads the size and modification time of a file, without the index.
+     *
+     *  @param directory : The directory the file is in.
+     *  @param filename : The name of the file.
+     *
+     *  Returns:
+     *      The attributes of the file.
+     *
+     *  @exception NoSuchFileException : when the file does not exist.
+     *  @exception IOException : when the attributes cannot be read.
+     */
+    public static BasicFileAttributes stat(String directory, String filename) throws IOException {
+        return Files.readAttributes(Paths.get(directory, filename), BasicFileAttributes.class);
+    }
+
+    /**
+     * Purpose:
+     *      Lists the directory and brings the index up to date with it: every regular file is added or refreshed and
+     *      entries of files no longer present are removed. The directory is read as a stream, so its entries are never all
+     *      held in an array at once.
+     *
+     *  @exception IOException : when the directory cannot be read.
+     */
+    private void scan() throws IOException {
+        Set<String> seen = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String filename = file.getFileName().toString();
+                seen.add(filename);
+                refresh(filename, -1);
+            }
+        }
+        for (String filename : entries.keySet()) {
+            if (!seen.contains(filename)) {
+                remove(filename);
+            }
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Re-reads the attributes of a file and updates its entry if they have changed, or removes the entry if the file
+     *      no longer exists or is not a regular file.
+     *
+     *  @param filename : The name of the file.
+     *  @param checksum : The CRC32 checksum of the file's contents if known, otherwise -1.
+     *
+     * NOTES:
+     *      Updates are made one at a time, as the watch thread and the server may refresh the same file at once.
+     */
+    private synchronized void refresh(String filename, long checksum) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(directory.resolve(filename), BasicFileAttributes.class);
+        } catch (IOException e) {
+            remove(filename);
+            return;
+        }
+        if (!attributes.isRegularFile()) {
+            remove(filename);
+            return;
+        }
+        Entry current = entries.get(filename);
+        long modified = attributes.lastModifiedTime().toMillis();
+        if (current != null && current.size == attributes.size() && current.modified == modified) {
+            if (checksum >= 0) {
+                current.checksum.compareAndSet(-1, checksum);
+            }
+            return;
+        }
+        Entry entry = new Entry(filename, attributes.size(), modified, checksum);
+        Entry previous = entries.put(filename, entry);
+        names.add(filename);
+        if (previous != null) {
+            previous.release();
+        }
+        changed(filename);
+        if (hasher != null) {
+            hasher.execute(entry::precompute);
+        }
+    }
+
+    private synchronized void remove(String filename) {
+        Entry previous = entries.remove(filename);
+        names.remove(filename);
+        if (previous != null) {
+            previous.release();
+            changed(filename);
+        }
+    }
+
+    private void changed(String filename) {
+        for (Consumer<String> listener : listeners) {
+            listener.accept(filename);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Applies the watch events for the directory to the index until the server stops. If events were lost the
+     *      directory is listed again.
+     *
+     *  @param watcher : The WatchService the directory is registered with.
+     */
+    private void watch(WatchService watcher) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        try {
+                            scan();
+                        } catch (IOException e) {
+                            System.err.println(e);
+                        }
+                    } else {
+                        refresh(event.context().toString(), -1);
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            return;
+        }
+    }
+
+    private static void close(FileChannel file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Purpose:
+ *      Content read from an open FileChannel with positional reads and transferTo, which lets the kernel move the data
+ *      from the file to a socket (sendfile) without copying it through the Java heap. Positional access does not move the
+ *      channel's own position, so one channel can serve any number of transfers at once.
+ *      The content can also be a region of a larger file, e.g. one file stored in a segment of a PackStore.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class FileContent implements Content {
+
+    private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel file;
+    private final long offset;
+    private final long size;
+    private final Runnable onRelease;
+    private final AtomicLong checksum;
+
+    /**
+     * Constructor
+     * @param file      : open channel of the file
+     * @param size      : size of the file in bytes
+     * @param onRelease : called when the transfer releases the content, e.g. to close the channel
+     */
+    public FileContent(FileChannel file, long size, Runnable onRelease) {
+        this(file, size, onRelease, new AtomicLong(-1));
+    }
+
+    /**
+     * Constructor
+     * @param file      : open channel of the file
+     * @param size      : size of the file in bytes
+     * @param onRelease : called when the transfer releases the content, e.g. to close the channel
+     * @param checksum  : holder of the file's checksum shared by every transfer of this version of the file, -1 until
+     *                    it has been computed
+     */
+    public FileContent(FileChannel file, long size, Runnable onRelease, AtomicLong checksum) {
+        this(file, 0, size, onRelease, checksum);
+    }
+
+    /**
+     * Constructor
+     * @param file      : open channel of the file holding the content
+     * @param offset    : offset in the file of the first byte of the content
+     * @param size      : size of the content in bytes
+     * @param onRelease : called when the transfer releases the content
+     * @param checksum  : holder of the content's checksum shared by every transfer of it, -1 until it has been computed
+     */
+    public FileContent(FileChannel file, long offset, long size, Runnable onRelease, AtomicLong checksum) {
+        this.file = file;
+        this.offset = offset;
+        this.size = size;
+        this.onRelease = onRelease;
+        this.checksum = checksum;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return file.transferTo(offset + position, Math.min(count, size - position), target);
+    }
+
+    @Override
+    public int read(ByteBuffer target, long position) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        if (target.remaining() > size - position) {
+            ByteBuffer limited = target.duplicate();
+            limited.limit(limited.position() + (int) (size - position));
+            int done = file.read(limited, offset + position);
+            target.position(limited.position());
+            return done;
+        }
+        return file.read(target, offset + position);
+    }
+
+    @Override
+    public long checksum() throws IOException {
+        long value = checksum.get();
+        if (value < 0) {
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+            long position = 0;
+            int done;
+            while ((done = read(buffer, position)) > 0) {
+                crc.update(buffer.array(), 0, done);
+                position += done;
+                buffer.clear();
+            }
+            if (position < size) {
+                throw new EOFException("file ended after " + position + " of " + size + " bytes");
+            }
+            value = crc.getValue();
+            checksum.set(value);
+        }
+        return value;
+    }
+
+    @Override
+    public void release() {
+        onRelease.run();
+    }
+}
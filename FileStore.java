@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+/**
+ * Purpose:
+ *      A storage backend the server can serve files from instead of one file each in the served directory, such as a
+ *      PackStore or a ChunkStore. Files are looked up and listed by name, and added, replaced or deleted whole.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public interface FileStore {
+
+    /**
+     * Purpose:
+     *      A file in the store, as found by a lookup.
+     */
+    interface Entry {
+
+        /** Purpose: Returns the size of the file in bytes. */
+        long size();
+
+        /** Purpose: Returns the modification time of the file in milliseconds since the epoch. */
+        long modified();
+
+        /** Purpose: Returns the CRC32 checksum of the file. */
+        long checksum();
+
+        /**
+         * Purpose:
+         *      Returns the contents of the file for one transfer.
+         *
+         *  Returns:
+         *      The file contents, or null if the file is no longer in the store. The caller must release them when the
+         *      transfer is finished.
+         */
+        Content open();
+    }
+
+    /**
+     * Purpose:
+     *      Looks up a file in the store.
+     *
+     *  @param filename : The name of the requested file.
+     *
+     *  Returns:
+     *      The entry of the file, or null if the store has no such file.
+     */
+    Entry get(String filename);
+
+    /**
+     * Purpose:
+     *      Returns the names of the files in the store in sorted order, starting after a given name.
+     *
+     *  @param after : The name to start after, or null to start from the first.
+     */
+    Iterator<String> names(String after);
+
+    /**
+     * Purpose:
+     *      Stores a file, replacing any file already stored under its name.
+     *
+     *  @param filename : The name to store the file under.
+     *  @param source : The channel to read the data from, from its start.
+     *  @param length : The length of the data.
+     *  @param modified : The modification time of the file in milliseconds since the epoch.
+     *
+     *  Returns:
+     *      The entry of the stored file.
+     *
+     *  @exception IOException : when the source ends before length bytes or the store cannot be written.
+     */
+    Entry add(String filename, FileChannel source, long length, long modified) throws IOException;
+
+    /**
+     * Purpose:
+     *      Removes a file from the store. Its space is reclaimed later, like that of a replaced file.
+     *
+     *  @param filename : The name of the file to remove.
+     *
+     *  Returns:
+     *      Whether the store had the file.
+     *
+     *  @exception IOException : when the store cannot be written.
+     */
+    boolean delete(String filename) throws IOException;
+
+    /**
+     * Purpose:
+     *      Forces the files added so far to the disk.
+     *
+     *  @exception IOException : when the store cannot be flushed.
+     */
+    void force() throws IOException;
+
+    /**
+     * Purpose:
+     *      Writes the store's persistent index, so the next time it is opened it does not have to read what was added.
+     *
+     *  @exception IOException : when the index cannot be written.
+     */
+    void checkpoint() throws IOException;
+
+    /**
+     * Purpose:
+     *      Starts a daemon thread reclaiming the space of replaced and deleted files at a fixed interval.
+     *
+     *  @param interval : Seconds between passes.
+     *  @param rate : Bytes per second the thread may copy.
+     */
+    void startCompactor(int interval, long rate);
+
+    /**
+     * Purpose:
+     *      Returns the store counters.
+     */
+    String stats();
+}
@@ -0,0 +1,264 @@
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Purpose:
+ *      Registry of files mapped into memory with FileChannel.map, shared by every connection serving them. A file is
+ *      mapped the first time it is requested and then served to every client from slices of the same MappedByteBuffer,
+ *      instead of opening the file for each request.
+ *
+ *      Mappings are reference counted: the registry holds one reference and each transfer holds one while it writes.
+ *      A mapping is removed from the registry when the file changes or has not been used for idleSeconds, and is
+ *      unmapped once the last transfer using it releases it.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class MappedFiles {
+
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            java.lang.reflect.Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final String directory;
+    private final long threshold;
+    private final long idleNanos;
+    private final Map<String, Mapping> mappings = new ConcurrentHashMap<>();
+
+    /**
+     * Purpose:
+     *      A file mapped into memory, with the size and modification time it had when it was mapped.
+     *
+     * NOTES:
+     *      Reading a page of the mapping past the end of a file truncated since it was mapped raises an InternalError
+     *      rather than an IOException. Transfers, reads and the checksum turn it into an EOFException, so it fails only
+     *      the transfer that hit it, like a file that ends early when read normally. In compiled code the error may be
+     *      raised after the copy has returned, which the reactor also handles (see Reactor.Loop.run).
+     */
+    public class Mapping extends BufferContent {
+        private final String filename;
+        private final MappedByteBuffer buffer;
+        private final long size;
+        private final long modified;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private volatile long lastUsed = System.nanoTime();
+
+        Mapping(String filename, MappedByteBuffer buffer, long size, long modified) {
+            this.filename = filename;
+            this.buffer = buffer;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        @Override
+        protected ByteBuffer buffer() {
+            return buffer;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            try {
+                return super.transferTo(position, count, target);
+            } catch (InternalError e) {
+                throw truncated(e);
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer target, long position) throws IOException {
+            try {
+                return super.read(target, position);
+            } catch (InternalError e) {
+                throw truncated(e);
+            }
+        }
+
+        @Override
+        public long checksum() throws IOException {
+            try {
+                return super.checksum();
+            } catch (InternalError e) {
+                throw truncated(e);
+            }
+        }
+
+        private EOFException truncated(InternalError e) {
+            EOFException truncated = new EOFException("mapped file truncated: " + filename);
+            truncated.initCause(e);
+            return truncated;
+        }
+
+        /**
+         * Purpose:
+         *      Takes a reference to the mapping, unless it has already been released by the registry and every transfer.
+         *
+         *  Returns:
+         *      True if a reference was taken, false if the mapping is no longer usable.
+         */
+        private boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            lastUsed = System.nanoTime();
+            return true;
+        }
+
+        /**
+         * Purpose:
+         *      Releases a reference taken by acquire. The file is unmapped when the last reference is released.
+         */
+        @Override
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                unmap(buffer);
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     * @param directory   : directory the requested files are in
+     * @param threshold   : size in bytes below which files are not mapped and are read normally
+     * @param idleSeconds : seconds after which a mapping that has not been used is removed
+     */
+    public MappedFiles(String directory, long threshold, int idleSeconds) {
+        this.directory = directory;
+        this.threshold = threshold;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "mapped-files");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, idleSeconds / 2);
+        sweeper.scheduleAtFixedRate(this::sweep, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Purpose:
+     *      Returns a reference to the mapping of the requested file, mapping it if it is not already mapped or has changed
+     *      since it was mapped. The caller must release the mapping when its transfer is finished.
+     *
+     *  @param filename : The name of the requested file.
+     *  @param size : The current size of the file in bytes.
+     *  @param modified : The current modification time of the file, in milliseconds since the epoch.
+     *
+     *  Returns:
+     *      The mapping, or null when the file is smaller than the threshold or too large to map, so it should be read normally.
+     *
+     *  @exception IOException : when the file does not exist or cannot be mapped.
+     */
+    public Mapping acquire(String filename, long size, long modified) throws IOException {
+        Path path = Paths.get(directory, filename);
+        if (size < threshold || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        while (true) {
+            Mapping mapping = mappings.get(filename);
+            if (mapping != null && (mapping.size != size || mapping.modified != modified)) {
+                remove(mapping);
+                mapping = null;
+            }
+            if (mapping == null) {
+                mapping = map(filename, path, size, modified);
+                Mapping existing = mappings.putIfAbsent(filename, mapping);
+                if (existing != null) {
+                    mapping.release();
+                    mapping = existing;
+                }
+            }
+            if (mapping.retain()) {
+                return mapping;
+            }
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Removes the mapping of a file from the registry, for example because the file has changed or been deleted.
+     *      Transfers already using the mapping finish with it before it is unmapped.
+     *
+     *  @param filename : The name of the file.
+     */
+    public void invalidate(String filename) {
+        Mapping mapping = mappings.get(filename);
+        if (mapping != null) {
+            remove(mapping);
+        }
+    }
+
+    private void remove(Mapping mapping) {
+        if (mappings.remove(mapping.filename, mapping)) {
+            mapping.release();
+        }
+    }
+
+    private Mapping map(String filename, Path path, long size, long modified) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Mapping(filename, file.map(FileChannel.MapMode.READ_ONLY, 0, size), size, modified);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Removes the mappings that have not been used for idleSeconds.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        for (Mapping mapping : mappings.values()) {
+            if (now - mapping.lastUsed > idleNanos) {
+                remove(mapping);
+            }
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Unmaps a buffer immediately rather than when it is garbage collected, so a changed or cold file does not keep
+     *      its old pages mapped.
+     *
+     *  @param buffer : A mapped buffer no longer referenced by any transfer.
+     *
+     * NOTES:
+     *      Java has no public API to unmap a buffer; when sun.misc.Unsafe is not available the mapping is left to the
+     *      garbage collector.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println(e);
+        }
+    }
+}
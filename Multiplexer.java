@@ -0,0 +1,309 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Purpose:
+ *      Serves a multiplexed connection, opened by a client whose first line is MUX. The connection then carries streams,
+ *      one per requested file, whose data is sent in chunks of at most CHUNK_SIZE bytes interleaved round-robin, so a
+ *      large file does not hold up the small files requested after it.
+ *
+ *      After the MUX line both directions carry frames: a type byte, a stream id and a payload length, both 4 bytes in
+ *      network byte order, and the payload.
+ *            - OPEN (client) : opens the stream with a new id; the payload is the stream's initial window, 4 bytes,
+ *              followed by the filename encoded in "utf-8".
+ *            - WINDOW (client) : allows the server to send the stream more data; the payload is the increment, 4 bytes.
+ *            - HEADER (server) : answers a stream with a response flag; READY is followed by the length and checksum of
+ *              the file as in protocol version 2 (see Server.version). Any other flag ends the stream.
+ *            - DATA (server) : the next chunk of the stream's file.
+ *      The server never sends a stream more data than its window allows, so a client reading one stream slowly limits
+ *      only that stream. A stream ends when its whole file has been sent.
+ *
+ *      The connection is served on the thread that accepted it, which reads the client's frames as they arrive between
+ *      the chunks it writes, so a multiplexed connection takes one worker like any other.
+ *
+ * NOTES:
+ *      Chunks are copied through a buffer, as they are interleaved with other frames on the same socket.
+ *      At most muxStreams streams are open at once; a stream opened beyond that is answered with BUSY.
+ *      The connection ends when the client closes it, once every stream that can still be sent has been sent.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class Multiplexer {
+
+    static final String MUX = "/MUX";
+    static final byte OPEN = 'O';
+    static final byte WINDOW = 'W';
+    static final byte HEADER = 'H';
+    static final byte DATA = 'D';
+    static final int CHUNK_SIZE = 16 * 1024;
+    private static final int HEADER_VERSION = 2;
+
+    private final Server server;
+    private final Socket socket;
+    private final InputStream in;
+    private final DataInputStream frames;
+    private final OutputStream out;
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private final ArrayDeque<Stream> queue = new ArrayDeque<>();
+    private boolean closed;
+
+    /**
+     * Purpose:
+     *      One requested file: its response header, its contents, the position reached in them and the number of bytes
+     *      the client allows to be sent.
+     */
+    private static class Stream {
+        final int id;
+        byte[] header;
+        Content content;
+        long position;
+        long size;
+        long window;
+
+        Stream(int id, long window) {
+            this.id = id;
+            this.window = window;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param server : server opening the requested files
+     * @param socket : accepted connection to the client
+     * @param in     : buffered stream of the client's frames, positioned after the MUX line
+     * @param out    : buffered stream to the client
+     */
+    public Multiplexer(Server server, Socket socket, InputStream in, OutputStream out) {
+        this.server = server;
+        this.socket = socket;
+        this.in = in;
+        this.frames = new DataInputStream(in);
+        this.out = out;
+    }
+
+    /**
+     * Purpose:
+     *      Serves the connection until it ends, writing the streams' frames one chunk of a stream at a time, taking the
+     *      streams in turn. The client's frames already received are read before each chunk; when no stream can be sent
+     *      the frames written so far are flushed and the thread waits for the client's next frame.
+     *
+     *  @exception IOException : when an I/O error occurs while reading a file or the connection, writing to the
+     *                           connection, or when the client sends a malformed frame.
+     */
+    public void serve() throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(server.config.idleTimeout * 1000);
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        try {
+            while (true) {
+                while (!closed && in.available() > 0) {
+                    read();
+                }
+                Stream stream = poll();
+                if (stream != null) {
+                    send(stream, chunk);
+                    continue;
+                }
+                out.flush();
+                if (closed || !await()) {
+                    break;
+                }
+            }
+        } finally {
+            for (Stream open : streams.values()) {
+                if (open.content != null) {
+                    open.content.release();
+                }
+            }
+            streams.clear();
+            queue.clear();
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Waits for the client's next frame when no stream can be sent, and reads it.
+     *
+     *  Returns:
+     *      false when no stream is open and no frame arrives within idleTimeout seconds, so the connection is ended.
+     *
+     *  @exception IOException : when an I/O error occurs while reading the connection or the frame is malformed.
+     */
+    private boolean await() throws IOException {
+        while (true) {
+            try {
+                read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                if (streams.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private Stream poll() {
+        for (int i = queue.size(); i > 0; i--) {
+            Stream stream = queue.poll();
+            if (stream.header != null || stream.window > 0) {
+                return stream;
+            }
+            queue.add(stream);
+        }
+        return null;
+    }
+
+    /**
+     * Purpose:
+     *      Writes the next frame of a stream: its header, or a chunk of at most CHUNK_SIZE bytes within its window. The
+     *      stream goes to the back of the queue until its file has been sent, after which its contents are released.
+     *
+     *  @param stream : The stream taken by poll.
+     *  @param chunk : Buffer of CHUNK_SIZE bytes to copy the chunk through.
+     *
+     *  @exception IOException : when an I/O error occurs while reading the file or writing to the connection.
+     */
+    private void send(Stream stream, ByteBuffer chunk) throws IOException {
+        if (stream.header != null) {
+            frame(HEADER, stream.id, stream.header.length);
+            out.write(stream.header);
+            stream.header = null;
+        }
+        else {
+            int count = (int) Math.min(CHUNK_SIZE, Math.min(stream.window, stream.size - stream.position));
+            chunk.clear().limit(count);
+            while (chunk.hasRemaining()) {
+                if (stream.content.read(chunk, stream.position + chunk.position()) < 0) {
+                    throw new EOFException("file ended after " + (stream.position + chunk.position()) + " of " + stream.size + " bytes");
+                }
+            }
+            frame(DATA, stream.id, count);
+            out.write(chunk.array(), 0, count);
+            stream.position += count;
+            stream.window -= count;
+        }
+        if (stream.content == null || stream.position >= stream.size) {
+            streams.remove(stream.id);
+            if (stream.content != null) {
+                stream.content.release();
+            }
+        } else {
+            queue.add(stream);
+        }
+    }
+
+    private void frame(byte type, int id, int length) throws IOException {
+        out.write(type);
+        out.write(ByteBuffer.allocate(2 * Integer.BYTES).putInt(id).putInt(length).array());
+    }
+
+    /**
+     * Purpose:
+     *      Reads one of the client's frames, opening a stream or widening its window. Once the client has closed the
+     *      connection the streams that can still be sent are sent and the connection ends.
+     *
+     * NOTES:
+     *      A frame is read whole once its first byte has arrived. Only a timeout before that byte leaves the connection
+     *      usable; a frame cut off for idleTimeout seconds ends the connection, as the frames after it cannot be found
+     *      once part of it has been read.
+     *
+     *  @exception SocketTimeoutException : when no frame starts within idleTimeout seconds.
+     *  @exception IOException : when an I/O error occurs while reading the connection, or the frame is malformed, as
+     *                           the frames after it cannot be found.
+     */
+    private void read() throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            closed = true;
+            return;
+        }
+        int id;
+        byte[] payload;
+        try {
+            id = frames.readInt();
+            int length = frames.readInt();
+            if (length < Integer.BYTES || length > Integer.BYTES + Server.BUFFER_SIZE) {
+                throw new IOException("mux frame payload of " + length + " bytes");
+            }
+            payload = new byte[length];
+            frames.readFully(payload);
+        } catch (SocketTimeoutException e) {
+            throw new IOException("mux frame cut off for " + server.config.idleTimeout + " seconds");
+        }
+        if (type == OPEN) {
+            open(id, payload);
+        } else if (type == WINDOW) {
+            window(id, ByteBuffer.wrap(payload).getInt());
+        } else {
+            throw new IOException("unknown mux frame type " + type);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Opens a stream for the requested file and queues its header: READY with the length and checksum of the file,
+     *      INVALID_SYMBOL when the filename contains a '/', NOT_FOUND when the file does not exist or cannot be opened,
+     *      or BUSY when muxStreams streams are already open.
+     *
+     *  @param id : The stream id chosen by the client.
+     *  @param payload : The payload of the OPEN frame.
+     *
+     *  @exception IOException : when a stream with the same id is already open.
+     */
+    private void open(int id, byte[] payload) throws IOException {
+        ByteBuffer fields = ByteBuffer.wrap(payload);
+        Stream stream = new Stream(id, fields.getInt());
+        String filename = new String(payload, Integer.BYTES, payload.length - Integer.BYTES, StandardCharsets.UTF_8);
+        if (streams.containsKey(id)) {
+            throw new IOException("mux stream " + id + " is already open");
+        }
+        if (streams.size() >= server.config.muxStreams) {
+            stream.header = Server.BUSY;
+        }
+        else if (filename.contains("/")) {
+            stream.header = Server.INVALID_SYMBOL;
+        }
+        else {
+            try {
+                stream.content = server.open(filename);
+                if (stream.content != null) {
+                    stream.size = stream.content.size();
+                    stream.header = Server.ready(stream.content, HEADER_VERSION).array();
+                }
+            } catch (IOException | InvalidPathException e) {
+                System.err.println(e);
+                if (stream.content != null) {
+                    stream.content.release();
+                    stream.content = null;
+                }
+            }
+            if (stream.content == null) {
+                stream.header = Server.NOT_FOUND;
+            }
+        }
+        streams.put(id, stream);
+        queue.add(stream);
+    }
+
+    /**
+     * Purpose:
+     *      Allows the server to send a stream more data. Frames for streams that have already ended are ignored.
+     *
+     *  @param id : The stream id.
+     *  @param increment : The number of bytes added to the stream's window.
+     */
+    private void window(int id, int increment) {
+        Stream stream = streams.get(id);
+        if (stream != null) {
+            stream.window += increment;
+        }
+    }
+}
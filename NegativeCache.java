@@ -0,0 +1,134 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Purpose:
+ *      Bounded cache of filenames recently requested that do not exist, so repeated requests for them are answered with
+ *      NOT_FOUND without a filesystem call or an exception. Each name is remembered for ttlSeconds at most, and is
+ *      forgotten as soon as a file of that name appears in the directory. When the cache is full the least recently
+ *      added name is dropped.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class NegativeCache {
+
+    private final long ttlNanos;
+    private final Map<String, Long> expiries;
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param directory  : directory the requested files are in, watched for new files
+     * @param maxEntries : maximum number of names remembered
+     * @param ttlSeconds : seconds a name is remembered for
+     */
+    public NegativeCache(String directory, int maxEntries, int ttlSeconds) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.expiries = new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        watch(Paths.get(directory));
+    }
+
+    /**
+     * Purpose:
+     *      Checks whether a filename is known not to exist.
+     *
+     *  @param filename : The name of the requested file.
+     *
+     *  Returns:
+     *      True if the file was missing less than ttlSeconds ago and has not appeared since.
+     */
+    public synchronized boolean contains(String filename) {
+        Long expiry = expiries.get(filename);
+        if (expiry == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiry > 0) {
+            expiries.remove(filename);
+            return false;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Purpose:
+     *      Remembers that a requested file does not exist.
+     *
+     *  @param filename : The name of the requested file.
+     */
+    public synchronized void add(String filename) {
+        expiries.remove(filename);
+        expiries.put(filename, System.nanoTime() + ttlNanos);
+    }
+
+    /**
+     * Purpose:
+     *      Forgets a filename, because a file of that name has appeared.
+     *
+     *  @param filename : The name of the file.
+     */
+    public synchronized void invalidate(String filename) {
+        expiries.remove(filename);
+    }
+
+    /**
+     * Purpose:
+     *      Returns the negative cache counters: requests answered from the cache and names remembered.
+     */
+    public synchronized String stats() {
+        return String.format("negativeHits=%d negativeEntries=%d", hits.get(), expiries.size());
+    }
+
+    /**
+     * Purpose:
+     *      Starts a thread watching the directory for new files, forgetting each as it appears. If events were lost the
+     *      whole cache is cleared.
+     *
+     *  @param directory : The directory the requested files are in.
+     *
+     * NOTES:
+     *      If the directory cannot be watched, names are only forgotten when their time to live runs out.
+     */
+    private void watch(Path directory) {
+        WatchService watcher;
+        try {
+            watcher = directory.getFileSystem().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            System.err.println(e);
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            synchronized (this) {
+                                expiries.clear();
+                            }
+                        } else {
+                            invalidate(event.context().toString());
+                        }
+                    }
+                    key.reset();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+        }, "negative-cache");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,312 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Purpose:
+ *      Persistent index of a PackStore, so the store can be opened without scanning its segments. The index file holds
+ *      one fixed-size slot per file, sorted by name, followed by the names themselves, and is memory mapped and searched
+ *      in place: a lookup is a binary search comparing the requested name with the mapped bytes, and no entry is read
+ *      into the Java heap until it is asked for. The file is laid out as:
+ *            - a header of INDEX_MAGIC, the number of slots and the segment number, as 4 bytes each; the offset in that
+ *              segment up to which the records are indexed and the length of the names, as 8 bytes each; the CRC32
+ *              checksum of the slots and names and the CRC32 checksum of the header before it, as 4 bytes each.
+ *            - the slots, each the offset of the name among the names as 8 bytes, the length of the name as 2 bytes,
+ *              the segment number as 4 bytes, the offset of the data in the segment, its size and the modification time
+ *              as 8 bytes each, and the CRC32 checksum of the data as 4 bytes.
+ *            - the names in "utf-8", one after the other.
+ *      all in network byte order. The slots are sorted by the bytes of the names, which is the order of their code points.
+ *
+ * NOTES:
+ *      The header checksum is checked when the index is opened; the checksum of the slots and names covers the whole
+ *      file, so it is checked separately by verify, which the store runs in the background.
+ *      The slots and the names are each mapped as one buffer, which limits an index to about 50 million files.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class PackIndex {
+
+    static final int INDEX_MAGIC = 0x504b4931;
+    static final int HEADER_SIZE = 3 * Integer.BYTES + 2 * Long.BYTES + 2 * Integer.BYTES;
+    static final int SLOT_SIZE = Long.BYTES + Short.BYTES + Integer.BYTES + 3 * Long.BYTES + Integer.BYTES;
+
+    /** Number of files in the index. */
+    public final int count;
+    /** Segment number and offset in it up to which the records of the segments are indexed. */
+    public final int segment;
+    public final long end;
+    private final int checksum;
+    private final MappedByteBuffer slots;
+    private final MappedByteBuffer names;
+
+    private PackIndex(int count, int segment, long end, int checksum, MappedByteBuffer slots, MappedByteBuffer names) {
+        this.count = count;
+        this.segment = segment;
+        this.end = end;
+        this.checksum = checksum;
+        this.slots = slots;
+        this.names = names;
+    }
+
+    /**
+     * Purpose:
+     *      Opens and maps an index file, checking its header.
+     *
+     *  @param file : The index file.
+     *
+     *  Returns:
+     *      The index, or null if the file does not exist.
+     *
+     *  @exception IOException : when the file cannot be read, or its header is damaged or does not match its size.
+     */
+    public static PackIndex open(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) == -1) {
+                    throw new IOException("Pack index too short: " + file);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, HEADER_SIZE - Integer.BYTES);
+            header.flip();
+            int magic = header.getInt();
+            int count = header.getInt();
+            int segment = header.getInt();
+            long end = header.getLong();
+            long namesSize = header.getLong();
+            int checksum = header.getInt();
+            if (magic != INDEX_MAGIC || header.getInt() != (int) crc.getValue() || count < 0 || namesSize < 0
+                    || namesSize > Integer.MAX_VALUE || (long) count * SLOT_SIZE > Integer.MAX_VALUE
+                    || channel.size() != HEADER_SIZE + (long) count * SLOT_SIZE + namesSize) {
+                throw new IOException("Damaged pack index: " + file);
+            }
+            MappedByteBuffer slots = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) count * SLOT_SIZE);
+            MappedByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + (long) count * SLOT_SIZE,
+                namesSize);
+            return new PackIndex(count, segment, end, checksum, slots, names);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Checks the slots and names against the checksum in the header, reading the whole index.
+     *
+     *  Returns:
+     *      Whether the index is intact.
+     */
+    public boolean verify() {
+        CRC32 crc = new CRC32();
+        crc.update(slots.duplicate().clear());
+        crc.update(names.duplicate().clear());
+        return (int) crc.getValue() == checksum;
+    }
+
+    /**
+     * Purpose:
+     *      Finds the slot of a file by binary search.
+     *
+     *  @param name : The name of the file, in "utf-8".
+     *
+     *  Returns:
+     *      The slot of the file, or -1 if it is not in the index.
+     */
+    public int find(byte[] name) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = compare(middle, name);
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Purpose:
+     *      Finds the first slot whose name sorts after the given name.
+     *
+     *  @param name : The name, in "utf-8".
+     *
+     *  Returns:
+     *      The slot, or count if every name sorts before or equal to it.
+     */
+    public int higher(byte[] name) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(middle, name) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int slot, byte[] name) {
+        int at = (int) slots.getLong(slot * SLOT_SIZE);
+        int length = slots.getShort(slot * SLOT_SIZE + Long.BYTES) & 0xffff;
+        for (int i = 0; i < length && i < name.length; i++) {
+            int order = Integer.compare(names.get(at + i) & 0xff, name[i] & 0xff);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(length, name.length);
+    }
+
+    /** Purpose: Returns the name of the file in a slot. */
+    public String name(int slot) {
+        byte[] name = new byte[slots.getShort(slot * SLOT_SIZE + Long.BYTES) & 0xffff];
+        names.get((int) slots.getLong(slot * SLOT_SIZE), name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /** Purpose: Returns the number of the segment holding the record of the file in a slot. */
+    public int segment(int slot) {
+        return slots.getInt(slot * SLOT_SIZE + Long.BYTES + Short.BYTES);
+    }
+
+    /** Purpose: Returns the offset in its segment of the data of the file in a slot. */
+    public long offset(int slot) {
+        return slots.getLong(slot * SLOT_SIZE + Long.BYTES + Short.BYTES + Integer.BYTES);
+    }
+
+    /** Purpose: Returns the size of the file in a slot. */
+    public long size(int slot) {
+        return slots.getLong(slot * SLOT_SIZE + 2 * Long.BYTES + Short.BYTES + Integer.BYTES);
+    }
+
+    /** Purpose: Returns the modification time of the file in a slot. */
+    public long modified(int slot) {
+        return slots.getLong(slot * SLOT_SIZE + 3 * Long.BYTES + Short.BYTES + Integer.BYTES);
+    }
+
+    /** Purpose: Returns the CRC32 checksum of the file in a slot. */
+    public long checksum(int slot) {
+        return slots.getInt(slot * SLOT_SIZE + 4 * Long.BYTES + Short.BYTES + Integer.BYTES) & 0xffffffffL;
+    }
+
+    /**
+     * Purpose:
+     *      Writes a new index file, one file at a time in sorted order, to a temporary file that replaces the index file
+     *      only once it is complete and forced to the disk. The names are written to a second temporary file and copied
+     *      after the slots when the index is committed.
+     */
+    public static class Writer implements Closeable {
+        private final Path file;
+        private final Path temporary;
+        private final Path namesFile;
+        private final FileChannel channel;
+        private final CheckedOutputStream body;
+        private final DataOutputStream slots;
+        private final DataOutputStream names;
+        private long namesSize;
+        private int count;
+        private boolean committed;
+
+        /**
+         * Constructor
+         * @param file : the index file to write
+         *
+         * @exception IOException : when the temporary files cannot be created.
+         */
+        public Writer(Path file) throws IOException {
+            this.file = file;
+            temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            namesFile = file.resolveSibling(file.getFileName() + ".names.tmp");
+            channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+            channel.position(HEADER_SIZE);
+            body = new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024), new CRC32());
+            slots = new DataOutputStream(body);
+            names = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(namesFile), 64 * 1024));
+        }
+
+        /**
+         * Purpose:
+         *      Adds a file to the index. Files must be added in the order of the bytes of their names.
+         *
+         *  @exception IOException : when the index would grow too large or cannot be written.
+         */
+        public void add(String filename, int segment, long offset, long size, long modified, long checksum)
+                throws IOException {
+            byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+            if ((long) (count + 1) * SLOT_SIZE > Integer.MAX_VALUE || namesSize + name.length > Integer.MAX_VALUE) {
+                throw new IOException("Too many files for pack index");
+            }
+            slots.writeLong(namesSize);
+            slots.writeShort(name.length);
+            slots.writeInt(segment);
+            slots.writeLong(offset);
+            slots.writeLong(size);
+            slots.writeLong(modified);
+            slots.writeInt((int) checksum);
+            names.write(name);
+            namesSize += name.length;
+            count++;
+        }
+
+        /**
+         * Purpose:
+         *      Completes the index and moves it in place of the index file.
+         *
+         *  @param segment : The segment number up to which the records are indexed.
+         *  @param end : The offset in that segment up to which the records are indexed.
+         *
+         *  @exception IOException : when the index cannot be written or moved.
+         */
+        public void commit(int segment, long end) throws IOException {
+            names.close();
+            Files.copy(namesFile, body);
+            slots.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(INDEX_MAGIC).putInt(count).putInt(segment).putLong(end).putLong(namesSize)
+                .putInt((int) body.getChecksum().getValue());
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, header.position());
+            header.putInt((int) crc.getValue()).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+            close();
+        }
+
+        /**
+         * Purpose:
+         *      Closes the writer, deleting the temporary files. An index that was not committed is discarded.
+         */
+        @Override
+        public void close() throws IOException {
+            names.close();
+            channel.close();
+            Files.deleteIfExists(namesFile);
+            if (!committed) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+}
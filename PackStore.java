@@ -0,0 +1,870 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Purpose:
+ *      Storage backend that packs many small files into a few large append-only segment files, so that serving a file
+ *      costs a lookup in memory and a positional read or transferTo from a segment that is already open, instead of a
+ *      path lookup and an open of a file of its own. Each file is stored as a record appended to the current segment:
+ *            - MAGIC, as 4 bytes.
+ *            - the length of the name as 2 bytes, followed by the name in "utf-8".
+ *            - the modification time of the file in milliseconds and the length of its data, each as 8 bytes.
+ *            - the data.
+ *            - the CRC32 checksum of the data, as 4 bytes.
+ *      all in network byte order. A new segment is started when the current one would grow past segmentSize. Storing a
+ *      file again appends a new record, which takes the place of the old one in the index. Deleting a file appends a
+ *      tombstone: a record whose length is DELETED, with no data and no checksum, which hides the file's earlier
+ *      records until the next PackIndex is written without it.
+ *
+ *      Files are looked up in a PackIndex written to INDEX_FILE, which is memory mapped when the store is opened, and
+ *      in an in-memory index of the records appended since, from each name to the segment, offset and length of its
+ *      latest record. Opening the store only scans the record headers appended after the point the PackIndex covers, or
+ *      every segment if there is no usable PackIndex. A new PackIndex is then written in the background when there were
+ *      records it did not cover, and the index file checked against its checksum. Names are listed in sorted order from
+ *      both indexes, so the store can be listed a page at a time like a DirectoryIndex.
+ *
+ * NOTES:
+ *      A record cut short by a crash while it was being appended is dropped, and the last segment truncated before it,
+ *      the next time the store is opened.
+ *      Names are sorted by their code points, the order of their bytes in "utf-8", rather than by String.compareTo.
+ *      A PackIndex that fails its checksum is discarded and the segments scanned again; until the check completes,
+ *      lookups are answered from it.
+ *      The space of records that have been replaced or deleted is reclaimed by compact, which copies the records still
+ *      served out of segments that are mostly replaced records and then deletes those segments. Tombstones are not
+ *      copied, as the PackIndex written by compact no longer has the deleted files. A segment is only closed and
+ *      deleted once the last transfer reading from it has released its contents.
+ *      A file deleted before its tombstone was compacted away can come back if the PackIndex is later found damaged
+ *      and a segment still holding an earlier record of the file is scanned again.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class PackStore implements FileStore {
+
+    static final int MAGIC = 0x50414b31;
+    static final long DELETED = -1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".pack";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    static final String INDEX_FILE = "index.idx";
+    private static final double COMPACT_LIVE_RATIO = 0.5;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private volatile View view;
+    private int current = -1;
+    private long end;
+
+    /**
+     * Purpose:
+     *      A segment file and the number of references to its channel: one held by the store until the segment is
+     *      compacted away, and one by each transfer reading from it. The channel is closed and the file deleted when the
+     *      last reference is released.
+     */
+    private static class Segment {
+        final Path file;
+        final FileChannel channel;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Segment(Path file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        /**
+         * Purpose:
+         *      Takes a reference to the channel.
+         *
+         *  Returns:
+         *      false if the segment has already been closed.
+         */
+        boolean acquire() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                try {
+                    channel.close();
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.err.println(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Purpose:
+     *      The indexes lookups are answered from: the mapped PackIndex, if any, and the records appended after the
+     *      point it covers, which take the place of its entries for the same names. A new View replaces the whole of the
+     *      old one when a new PackIndex is written, so a lookup never sees one without the other.
+     */
+    private static class View {
+        final PackIndex index;
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        final NavigableSet<String> names = new ConcurrentSkipListSet<>(PackStore::compare);
+
+        View(PackIndex index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Purpose:
+     *      A file in the store: the segment holding its latest record, the offset of its data in the segment, and its
+     *      size, modification time and checksum as stored in the record.
+     */
+    public class Entry implements FileStore.Entry {
+        public final String filename;
+        public final int segment;
+        public final long offset;
+        public final long size;
+        public final long modified;
+        private final AtomicLong checksum;
+
+        Entry(String filename, int segment, long offset, long size, long modified, long checksum) {
+            this.filename = filename;
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.modified = modified;
+            this.checksum = new AtomicLong(checksum);
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public long modified() {
+            return modified;
+        }
+
+        /**
+         * Purpose:
+         *      Returns the CRC32 checksum of the file, as stored in its record.
+         */
+        public long checksum() {
+            return checksum.get();
+        }
+
+        /**
+         * Purpose:
+         *      Returns the contents of the file for one transfer: its region of the segment's shared channel, read with
+         *      positional reads or transferTo.
+         *
+         *  Returns:
+         *      The file contents, or null if the file is no longer in the store. The caller must release them when the
+         *      transfer is finished.
+         *
+         * NOTES:
+         *      If the segment was compacted away since the entry was looked up, the file is looked up again and opened
+         *      where its record was copied to.
+         */
+        public Content open() {
+            Segment from = segments.get(segment);
+            if (from == null || !from.acquire()) {
+                Entry moved = get(filename);
+                return moved == null || moved.segment == segment ? null : moved.open();
+            }
+            return new FileContent(from.channel, offset, size, from::release, checksum);
+        }
+    }
+
+    /**
+     * Constructor
+     * @param directory   : the directory holding the segment files, created if it does not exist
+     * @param segmentSize : size in bytes past which a new segment is started
+     *
+     * @exception IOException : when the directory or a segment cannot be read.
+     */
+    public PackStore(String directory, long segmentSize) throws IOException {
+        this.directory = Files.createDirectories(Paths.get(directory));
+        this.segmentSize = segmentSize;
+        TreeMap<Integer, Path> found = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    found.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    System.err.println("Ignoring unexpected file in pack store: " + file);
+                }
+            }
+        }
+        for (Map.Entry<Integer, Path> segment : found.entrySet()) {
+            segments.put(segment.getKey(), new Segment(segment.getValue(),
+                FileChannel.open(segment.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE)));
+            current = segment.getKey();
+        }
+        PackIndex index = null;
+        try {
+            index = PackIndex.open(this.directory.resolve(INDEX_FILE));
+            if (index != null && !covers(index)) {
+                System.err.println("Pack index does not match the segments, scanning them");
+                index = null;
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+        view = new View(index);
+        for (int number : found.keySet()) {
+            if (index == null || number >= index.segment) {
+                end = scan(view, number, segments.get(number).channel, index != null && number == index.segment ? index.end : 0,
+                    number == current);
+            }
+        }
+        Thread maintenance = new Thread(this::maintain, "pack-index");
+        maintenance.setDaemon(true);
+        maintenance.start();
+    }
+
+    /**
+     * Purpose:
+     *      Checks that a PackIndex was written for these segments: that the segment it covers exists and holds either
+     *      exactly the records covered or the start of another record after them.
+     */
+    private boolean covers(PackIndex index) throws IOException {
+        FileChannel segment = segments.containsKey(index.segment) ? segments.get(index.segment).channel : null;
+        if (segment == null || segment.size() < index.end) {
+            return false;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+        return segment.size() == index.end || (read(segment, magic, index.end) && magic.getInt(0) == MAGIC);
+    }
+
+    /**
+     * Purpose:
+     *      Checks the PackIndex against its checksum, scanning the segments again if it is damaged, then writes a new
+     *      one if there are records it does not cover. Run in the background when the store is opened.
+     */
+    private void maintain() {
+        PackIndex index = view.index;
+        try {
+            if (index != null && !index.verify()) {
+                System.err.println("Pack index failed its checksum, scanning the segments");
+                rescan();
+            }
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+
+    private synchronized void rescan() throws IOException {
+        View fresh = new View(null);
+        for (int number : new TreeSet<>(segments.keySet())) {
+            scan(fresh, number, segments.get(number).channel, 0, false);
+        }
+        view = fresh;
+    }
+
+    /**
+     * Purpose:
+     *      Writes a new PackIndex covering every record appended so far and maps it in place of the old one. Appends wait
+     *      while it is written; lookups carry on from the old one.
+     *
+     *  @exception IOException : when the index cannot be written, or read back once written.
+     */
+    public synchronized void checkpoint() throws IOException {
+        View old = view;
+        if (old.entries.isEmpty() && (old.index != null || current < 0)) {
+            return;
+        }
+        if (current >= 0) {
+            segments.get(current).channel.force(false);
+        }
+        Path file = directory.resolve(INDEX_FILE);
+        try (PackIndex.Writer writer = new PackIndex.Writer(file)) {
+            Iterator<Entry> entries = entries(old, null);
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                writer.add(entry.filename, entry.segment, entry.offset, entry.size, entry.modified, entry.checksum());
+            }
+            writer.commit(current, end);
+        }
+        view = new View(PackIndex.open(file));
+    }
+
+    /**
+     * Purpose:
+     *      Looks up a file in the store.
+     *
+     *  @param filename : The name of the requested file.
+     *
+     *  Returns:
+     *      The entry of the file, or null if the store has no such file.
+     */
+    public Entry get(String filename) {
+        View view = this.view;
+        Entry entry = view.entries.get(filename);
+        if (entry != null || view.index == null) {
+            return entry == null || entry.size == DELETED ? null : entry;
+        }
+        int slot = view.index.find(filename.getBytes(StandardCharsets.UTF_8));
+        return slot < 0 ? null : entry(view.index, slot, filename);
+    }
+
+    /**
+     * Purpose:
+     *      Returns the names of the files in the store in sorted order, starting after a given name. Files added while
+     *      the names are iterated may or may not be included.
+     *
+     *  @param after : The name to start after, or null to start from the first.
+     */
+    public Iterator<String> names(String after) {
+        Iterator<Entry> entries = entries(view, after);
+        return new Iterator<String>() {
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            public String next() {
+                return entries.next().filename;
+            }
+        };
+    }
+
+    /**
+     * Purpose:
+     *      Returns the entries of a View in sorted order, starting after a given name, merging the PackIndex with the
+     *      records appended since and taking the latter for names in both. Deleted files are left out.
+     */
+    private Iterator<Entry> entries(View view, String after) {
+        PackIndex index = view.index;
+        Iterator<String> names = (after == null ? view.names : view.names.tailSet(after, false)).iterator();
+        int first = index == null ? 0 : after == null ? 0 : index.higher(after.getBytes(StandardCharsets.UTF_8));
+        return new Iterator<Entry>() {
+            private int slot = first;
+            private Entry indexed = nextIndexed();
+            private Entry added = nextAdded();
+            private Entry following = advance();
+
+            private Entry nextIndexed() {
+                return index == null || slot >= index.count ? null : entry(index, slot, index.name(slot++));
+            }
+
+            private Entry nextAdded() {
+                return names.hasNext() ? view.entries.get(names.next()) : null;
+            }
+
+            private Entry advance() {
+                while (indexed != null || added != null) {
+                    int order = indexed == null ? 1 : added == null ? -1 : compare(indexed.filename, added.filename);
+                    Entry entry = order < 0 ? indexed : added;
+                    if (order <= 0) {
+                        indexed = nextIndexed();
+                    }
+                    if (order >= 0) {
+                        added = nextAdded();
+                    }
+                    if (entry.size != DELETED) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return following != null;
+            }
+
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Entry entry = following;
+                following = advance();
+                return entry;
+            }
+        };
+    }
+
+    private Entry entry(PackIndex index, int slot, String filename) {
+        return new Entry(filename, index.segment(slot), index.offset(slot), index.size(slot), index.modified(slot),
+            index.checksum(slot));
+    }
+
+    /**
+     * Purpose:
+     *      Compares two names by their code points, which sorts them in the order of their bytes in "utf-8".
+     */
+    static int compare(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (x != y) {
+                return Integer.compare(x, y);
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * Purpose:
+     *      Appends a file to the current segment and makes it the file served under its name. The data is copied through
+     *      a buffer of COPY_BUFFER_SIZE bytes and its checksum computed on the way.
+     *
+     *  @param filename : The name to store the file under.
+     *  @param source : The channel to read the data from, from its start.
+     *  @param length : The length of the data.
+     *  @param modified : The modification time of the file in milliseconds since the epoch.
+     *
+     *  Returns:
+     *      The entry of the stored file.
+     *
+     * NOTES:
+     *      The record is only written to the operating system; call force to make sure it has reached the disk.
+     *      If the record cannot be written in full the segment is cut back to where it started, so no partial record is
+     *      left in it.
+     *
+     *  @exception IOException : when the source ends before length bytes or the segment cannot be written.
+     */
+    public synchronized Entry add(String filename, FileChannel source, long length, long modified) throws IOException {
+        return append(filename, source::read, 0, length, modified, -1);
+    }
+
+    /**
+     * Purpose:
+     *      Appends a file held in memory to the current segment, as add does for one read from a channel.
+     *
+     *  @param data : The array holding the data.
+     *  @param offset : The offset of the data in the array.
+     *  @param length : The length of the data.
+     *
+     *  @exception IOException : when the segment cannot be written.
+     */
+    public synchronized Entry add(String filename, byte[] data, int offset, int length, long modified) throws IOException {
+        return append(filename, (buffer, position) -> {
+            int count = (int) Math.min(buffer.remaining(), length - position);
+            buffer.put(data, offset + (int) position, count);
+            return count;
+        }, 0, length, modified, -1);
+    }
+
+    /**
+     * Purpose:
+     *      Deletes a file by appending a tombstone for it to the current segment.
+     *
+     *  @param filename : The name of the file to delete.
+     *
+     *  Returns:
+     *      Whether the store had the file.
+     *
+     * NOTES:
+     *      Like a record, the tombstone is only written to the operating system; call force to make sure it has
+     *      reached the disk.
+     *
+     *  @exception IOException : when the segment cannot be written.
+     */
+    public synchronized boolean delete(String filename) throws IOException {
+        if (get(filename) == null) {
+            return false;
+        }
+        append(filename, null, 0, DELETED, System.currentTimeMillis(), -1);
+        return true;
+    }
+
+    /**
+     * Purpose:
+     *      Where append reads the data of a record from, e.g. FileChannel.read.
+     */
+    private interface Source {
+        int read(ByteBuffer buffer, long position) throws IOException;
+    }
+
+    /**
+     * Purpose:
+     *      Appends a record to the current segment, copying its data from a region of a channel, and makes it the file
+     *      served under its name. With length DELETED a tombstone is appended instead, and source is not read.
+     *
+     *  @param from : The offset of the data in source.
+     *  @param expected : The checksum the data must have, or -1 to take whatever it has.
+     *
+     *  @exception IOException : when the source ends early, the data does not match the expected checksum or the
+     *                           segment cannot be written.
+     */
+    private Entry append(String filename, Source source, long from, long length, long modified, long expected)
+            throws IOException {
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xffff) {
+            throw new IOException("Name too long for pack store: " + filename);
+        }
+        long recordSize = recordSize(name.length, length);
+        if (current < 0 || (end > 0 && end + recordSize > segmentSize)) {
+            roll();
+        }
+        FileChannel segment = segments.get(current).channel;
+        long start = end;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Short.BYTES + name.length + 2 * Long.BYTES);
+            header.putInt(MAGIC).putShort((short) name.length).put(name).putLong(modified).putLong(length);
+            header.flip();
+            long position = write(segment, header, start);
+            long offset = position;
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            long copied = 0;
+            while (copied < length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - copied));
+                int done = source.read(buffer, from + copied);
+                if (done == -1) {
+                    throw new EOFException("Source ended after " + copied + " of " + length + " bytes: " + filename);
+                }
+                crc.update(buffer.array(), 0, done);
+                buffer.flip();
+                position = write(segment, buffer, position);
+                copied += done;
+            }
+            if (expected >= 0 && crc.getValue() != expected) {
+                throw new IOException("Damaged record in pack store: " + filename);
+            }
+            if (length == DELETED) {
+                end = position;
+            } else {
+                ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+                trailer.putInt((int) crc.getValue()).flip();
+                end = write(segment, trailer, position);
+            }
+            Entry entry = new Entry(filename, current, offset, length, modified, crc.getValue());
+            put(view, entry);
+            return entry;
+        } catch (IOException e) {
+            segment.truncate(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Forces the records appended so far to the disk.
+     *
+     *  @exception IOException : when the segment cannot be flushed.
+     */
+    public synchronized void force() throws IOException {
+        if (current >= 0) {
+            segments.get(current).channel.force(false);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Returns the store counters: files in the PackIndex, records appended since it was written, segments and bytes
+     *      in the segments.
+     */
+    public synchronized String stats() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            try {
+                bytes += segment.channel.size();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+        View view = this.view;
+        return String.format("packIndexed=%d packUnindexed=%d packSegments=%d packBytes=%d",
+            view.index == null ? 0 : view.index.count, view.entries.size(), segments.size(), bytes);
+    }
+
+    /**
+     * Purpose:
+     *      Reads the record headers of a segment from a given offset and adds each record to the in-memory index of a
+     *      View, replacing the entries of earlier records for the same name. A tombstone is added as an entry of size
+     *      DELETED.
+     *
+     *  @param view : The View to add the records to.
+     *  @param number : The number of the segment.
+     *  @param segment : The channel of the segment.
+     *  @param position : The offset of the first record to read.
+     *  @param last : Whether this is the last segment, the one records are appended to.
+     *
+     *  Returns:
+     *      The offset after the last complete record.
+     *
+     * NOTES:
+     *      A damaged or incomplete record ends the scan of the segment. In the last segment it is taken to be a record
+     *      whose append was interrupted, and is cut off; in any other it is reported and the segment left as it is.
+     *
+     *  @exception IOException : when the segment cannot be read.
+     */
+    private long scan(View view, int number, FileChannel segment, long position, boolean last) throws IOException {
+        long size = segment.size();
+        ByteBuffer prefix = ByteBuffer.allocate(Integer.BYTES + Short.BYTES);
+        ByteBuffer fields = ByteBuffer.allocate(2 * Long.BYTES);
+        ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+        while (position < size) {
+            prefix.clear();
+            fields.clear();
+            trailer.clear();
+            if (!read(segment, prefix, position) || prefix.getInt(0) != MAGIC) {
+                break;
+            }
+            ByteBuffer name = ByteBuffer.allocate(prefix.getShort(Integer.BYTES) & 0xffff);
+            long offset = position + prefix.capacity() + name.capacity() + fields.capacity();
+            if (!read(segment, name, position + prefix.capacity())
+                    || !read(segment, fields, position + prefix.capacity() + name.capacity())) {
+                break;
+            }
+            long length = fields.getLong(Long.BYTES);
+            if (length == DELETED) {
+                put(view, new Entry(new String(name.array(), StandardCharsets.UTF_8), number, offset, DELETED,
+                    fields.getLong(0), 0));
+                position = offset;
+                continue;
+            }
+            if (length < 0 || offset + length + Integer.BYTES > size || !read(segment, trailer, offset + length)) {
+                break;
+            }
+            put(view, new Entry(new String(name.array(), StandardCharsets.UTF_8), number, offset, length, fields.getLong(0),
+                trailer.getInt(0) & 0xffffffffL));
+            position = offset + length + Integer.BYTES;
+        }
+        if (position < size) {
+            if (last) {
+                System.err.println("Dropping incomplete record at " + position + " of pack segment " + number);
+                segment.truncate(position);
+            } else {
+                System.err.println("Damaged record at " + position + " of pack segment " + number);
+            }
+        }
+        return position;
+    }
+
+    private static void put(View view, Entry entry) {
+        view.entries.put(entry.filename, entry);
+        view.names.add(entry.filename);
+    }
+
+    /**
+     * Purpose:
+     *      Starts a new segment after the current one and makes it the one records are appended to.
+     *
+     *  @exception IOException : when the segment file cannot be created.
+     */
+    private void roll() throws IOException {
+        int number = current + 1;
+        Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        FileChannel segment = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE_NEW);
+        segments.put(number, new Segment(file, segment));
+        current = number;
+        end = 0;
+    }
+
+    private static long recordSize(int nameLength, long length) {
+        long header = Integer.BYTES + Short.BYTES + nameLength + 2 * Long.BYTES;
+        return length == DELETED ? header : header + length + Integer.BYTES;
+    }
+
+    /**
+     * Purpose:
+     *      Starts a daemon thread compacting the store at a fixed interval.
+     *
+     *  @param interval : Seconds between passes.
+     *  @param rate : Bytes per second the compactor may copy.
+     */
+    public void startCompactor(int interval, long rate) {
+        Thread compactor = new Thread(() -> {
+            while (true) {
+                try {
+                    TimeUnit.SECONDS.sleep(interval);
+                    compact(rate);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    System.err.println(e);
+                }
+            }
+        }, "pack-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Purpose:
+     *      Reclaims the space of replaced and deleted records. Each segment other than the current one whose records still served
+     *      take up less than COMPACT_LIVE_RATIO of it has those records copied to the current segment; a new PackIndex
+     *      is then written and the segments deleted once no transfer is reading from them.
+     *
+     *  @param rate : Bytes per second the compactor may copy, so that it does not take the disk from the transfers.
+     *
+     *  Returns:
+     *      The number of segments compacted.
+     *
+     * NOTES:
+     *      Each record is copied under the store's lock, so appends wait for one record at a time. A record replaced
+     *      while its segment is compacted is not copied.
+     *      A segment holding a record that fails its checksum is left as it is.
+     *
+     *  @exception InterruptedException : when the thread is interrupted while waiting for the rate.
+     *  @exception IOException : when the new PackIndex cannot be written.
+     */
+    public int compact(long rate) throws IOException, InterruptedException {
+        int last;
+        synchronized (this) {
+            last = current;
+        }
+        Map<Integer, Long> live = new HashMap<>();
+        Map<Integer, List<String>> names = new TreeMap<>();
+        Iterator<Entry> entries = entries(view, null);
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.segment != last) {
+                live.merge(entry.segment, recordSize(entry.filename.getBytes(StandardCharsets.UTF_8).length, entry.size), Long::sum);
+                names.computeIfAbsent(entry.segment, number -> new ArrayList<>()).add(entry.filename);
+            }
+        }
+        List<Integer> compacted = new ArrayList<>();
+        long copied = 0;
+        long start = System.nanoTime();
+        for (int number : new TreeSet<>(segments.keySet())) {
+            Segment segment = segments.get(number);
+            if (number >= last || live.getOrDefault(number, 0L) >= segment.channel.size() * COMPACT_LIVE_RATIO) {
+                continue;
+            }
+            try {
+                for (String filename : names.getOrDefault(number, Collections.emptyList())) {
+                    copied += move(filename, number);
+                    long ahead = (long) (copied * 1e9 / rate) - (System.nanoTime() - start);
+                    if (ahead > 0) {
+                        TimeUnit.NANOSECONDS.sleep(ahead);
+                    }
+                }
+                compacted.add(number);
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+        if (compacted.isEmpty()) {
+            return 0;
+        }
+        checkpoint();
+        for (int number : compacted) {
+            segments.remove(number).release();
+        }
+        return compacted.size();
+    }
+
+    /**
+     * Purpose:
+     *      Copies a record to the current segment if it is still the one served under its name.
+     *
+     *  Returns:
+     *      The number of bytes copied.
+     */
+    private synchronized long move(String filename, int number) throws IOException {
+        Entry entry = get(filename);
+        if (entry == null || entry.segment != number) {
+            return 0;
+        }
+        append(filename, segments.get(number).channel::read, entry.offset, entry.size, entry.modified, entry.checksum());
+        return recordSize(filename.getBytes(StandardCharsets.UTF_8).length, entry.size);
+    }
+
+    private static long write(FileChannel segment, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += segment.write(buffer, position);
+        }
+        return position;
+    }
+
+    private static boolean read(FileChannel segment, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int done = segment.read(buffer, position);
+            if (done == -1) {
+                return false;
+            }
+            position += done;
+        }
+        return true;
+    }
+
+    /**
+     * Purpose:
+     *      Packs every regular file of the served directory into the pack store, or with --store=chunks into the chunk
+     *      store, so the server can be started with the same --store. Files already stored with the same size and modification time are skipped, so the directory
+     *      can be packed again to add the files that have appeared since; stored files no longer in the directory are
+     *      deleted. Settings are given as for the server, e.g. --pack-segment-size=N.
+     */
+    public static void main(String[] args) {
+        ServerConfig config = null;
+        try {
+            config = ServerConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(-3);
+        }
+        int packed = 0;
+        int deleted = 0;
+        try {
+            FileStore store = config.store == ServerConfig.Store.CHUNKS
+                ? new ChunkStore(Server.chunkDirectory, config.packSegmentSize)
+                : new PackStore(Server.packDirectory, config.packSegmentSize);
+            Set<String> present = new HashSet<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(Server.directory))) {
+                for (Path file : files) {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    String filename = file.getFileName().toString();
+                    if (attributes.isRegularFile()) {
+                        present.add(filename);
+                    }
+                    long modified = attributes.lastModifiedTime().toMillis();
+                    FileStore.Entry stored = store.get(filename);
+                    if (!attributes.isRegularFile()
+                            || (stored != null && stored.size() == attributes.size() && stored.modified() == modified)) {
+                        continue;
+                    }
+                    try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+                        store.add(filename, source, attributes.size(), modified);
+                    }
+                    packed++;
+                }
+            }
+            List<String> gone = new ArrayList<>();
+            Iterator<String> names = store.names(null);
+            while (names.hasNext()) {
+                String filename = names.next();
+                if (!present.contains(filename)) {
+                    gone.add(filename);
+                }
+            }
+            for (String filename : gone) {
+                if (store.delete(filename)) {
+                    deleted++;
+                }
+            }
+            store.force();
+            store.checkpoint();
+            System.out.println("Packed " + packed + " files, deleted " + deleted + ": " + store.stats());
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,687 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Purpose:
+ *      Non-blocking engine for the file server. Accepted SocketChannels are served by selector loops, each a thread
+ *      driving its own Selector: the request line is parsed incrementally as bytes arrive, and file data is written only
+ *      when the socket is writable. Connections hold no thread and no data buffer of their own, so one loop can serve
+ *      thousands of them.
+ *
+ *      With selectors set to 0, one loop also accepts connections on the ServerSocketChannel. Otherwise the calling
+ *      thread only accepts connections and hands each to one of the configured number of loops, chosen round-robin or
+ *      by fewest open connections, so the work is spread across cores.
+ *
+ *      The protocol is the same as the blocking engine in Server: a filename followed by a newline is answered with the
+ *      READY flag and the file data, or with the NOT_FOUND or INVALID_SYMBOL flag, and the connection is closed.
+ *      A connection opened with HELLO is kept alive and answers its requests in turn, each file preceded by its header.
+ *      Batch and glob requests are answered one file at a time, each with its ENTRY header, and ended with END.
+ *      Multiplexed connections (see Multiplexer) and uploads are served by the blocking engines only; the reactor answers
+ *      MUX with INVALID_SYMBOL like any other line containing a '/', and PUT with INVALID_SYMBOL before closing the
+ *      connection, as the data of the upload follows the line. Without the directory index or a store the reactor also
+ *      answers LIST with INVALID_SYMBOL, as a page would read the directory and every file in it on the loop thread.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class Reactor {
+
+    private static final int TRANSFER_SIZE = 64 * 1024;
+    private static final int MAX_WRITES_PER_EVENT = 16;
+    private static final long SWEEP_MILLIS = 1000;
+
+    private final Server server;
+    private final ServerConfig config;
+    private int next;
+
+    /**
+     * Constructor
+     * @param server : server whose connection counters are updated
+     * @param config : startup settings for the server
+     */
+    public Reactor(Server server, ServerConfig config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    /**
+     * Purpose:
+     *      The state of one client connection. Request lines are collected in a buffer of BUFFER_SIZE bytes; while a
+     *      request is answered the connection holds the response flag, the contents of the file, the position reached
+     *      in them and the offset after the last byte to send. A connection also records when it last started waiting for
+     *      the client, and a keep-alive one counts the requests it has made.
+     *      A connection in a batch request (see Server.batch) is flagged until the empty line ending it; one answering a
+     *      glob request holds the names of the matching files not yet sent. A connection whose response is the last it
+     *      will be sent, e.g. a refused upload whose data is still to come, is flagged to be closed once it is written.
+     */
+    private static class Connection {
+        ByteBuffer line = ByteBuffer.allocate(Server.BUFFER_SIZE);
+        ByteBuffer flag;
+        Content content;
+        long position;
+        long end;
+        int version;
+        int requests;
+        long idleSince = System.nanoTime();
+        boolean closing;
+        boolean batch;
+        Queue<String> entries;
+        boolean last;
+    }
+
+    /**
+     * Purpose:
+     *      Opens a ServerSocketChannel on the configured port and serves connections until manually closed.
+     *
+     *  @exception IOException : when an error occurs while setting up the selectors or the serverSocketChannel.
+     */
+    public void serve() throws IOException {
+        try (
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        ) {
+            serverChannel.bind(new InetSocketAddress(config.port), config.backlog);
+            if (config.selectors == 0) {
+                new Loop(serverChannel).run();
+                return;
+            }
+            Loop[] loops = new Loop[config.selectors];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new Loop(null);
+                Thread thread = new Thread(loops[i], "selector-" + (i + 1));
+                thread.setDaemon(true);
+                thread.start();
+            }
+            while (true) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    channel.configureBlocking(false);
+                    server.opened();
+                    choose(loops).add(channel);
+                } catch (ClosedChannelException e) {
+                    throw e;
+                } catch (IOException e) {
+                    System.err.println(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Chooses the loop to serve a newly accepted connection according to the configured balance: the next loop in
+     *      turn, or the loop with the fewest open connections.
+     *
+     *  @param loops : The selector loops.
+     *
+     *  Returns:
+     *      The chosen loop.
+     */
+    private Loop choose(Loop[] loops) {
+        if (config.balance == ServerConfig.Balance.ROUNDROBIN) {
+            next = (next + 1) % loops.length;
+            return loops[next];
+        }
+        Loop chosen = loops[0];
+        for (Loop loop : loops) {
+            if (loop.connections.get() < chosen.connections.get()) {
+                chosen = loop;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Purpose:
+     *      A thread serving connections from its own Selector, with its own transfer buffer for reading file data.
+     *      Connections accepted by another thread are queued with add and registered by the loop itself, since a channel
+     *      cannot be registered while the selector is blocked in select.
+     */
+    private class Loop implements Runnable {
+
+        private final Selector selector;
+        private final ServerSocketChannel serverChannel;
+        private final ByteBuffer transfer = ByteBuffer.allocateDirect(TRANSFER_SIZE);
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger connections = new AtomicInteger();
+        private long lastSweep = System.nanoTime();
+
+        /**
+         * Constructor
+         * @param serverChannel : listening channel to accept connections from, or null when connections are added by another thread
+         *
+         * @exception IOException : when the selector cannot be opened.
+         */
+        Loop(ServerSocketChannel serverChannel) throws IOException {
+            this.selector = Selector.open();
+            this.serverChannel = serverChannel;
+        }
+
+        /**
+         * Purpose:
+         *      Queues a connection accepted by another thread to be served by this loop.
+         *
+         *  @param channel : The accepted non-blocking connection.
+         */
+        void add(SocketChannel channel) {
+            connections.incrementAndGet();
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Purpose:
+         *      Serves the loop's connections until the selector fails, which ends the server.
+         *
+         * NOTES:
+         *      Sending a mapped file truncated since it was mapped faults on the missing pages, which the JVM raises as
+         *      an InternalError. The mapping turns it into an EOFException (see MappedFiles.Mapping), but in compiled
+         *      code it is raised some time after the faulting copy, possibly outside the handling of the connection. As
+         *      the fault came from this thread, the connection it belongs to is the last one handled, which is closed.
+         */
+        @Override
+        public void run() {
+            try {
+                if (serverChannel != null) {
+                    serverChannel.configureBlocking(false);
+                    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+                }
+                SelectionKey handled = null;
+                while (true) {
+                    try {
+                        selector.select(config.idleTimeout > 0 ? SWEEP_MILLIS : 0);
+                        register();
+                        expire();
+                        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                        while (keys.hasNext()) {
+                            SelectionKey key = keys.next();
+                            keys.remove();
+                            if (key.isAcceptable()) {
+                                try {
+                                    accept();
+                                } catch (IOException e) {
+                                    System.err.println(e);
+                                }
+                                continue;
+                            }
+                            handled = key;
+                            try {
+                                if (key.isReadable()) {
+                                    read(key);
+                                } else if (key.isWritable()) {
+                                    write(key);
+                                }
+                            } catch (IOException e) {
+                                System.err.println(e);
+                                close(key);
+                            } catch (CancelledKeyException e) {
+                                close(key);
+                            }
+                        }
+                    } catch (InternalError e) {
+                        System.err.println(e);
+                        if (handled != null) {
+                            close(handled);
+                            handled = null;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(e);
+                System.exit(-1);
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Registers the connections queued by add with the selector to read their request line.
+         */
+        private void register() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.register(selector, SelectionKey.OP_READ, new Connection());
+                } catch (IOException e) {
+                    System.err.println(e);
+                    connections.decrementAndGet();
+                    server.closed();
+                    try {
+                        channel.close();
+                    } catch (IOException closing) {
+                        System.err.println(closing);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Accepts every pending connection and registers it with the selector to read its request line.
+         *
+         *  @exception IOException : when an I/O error occurs while accepting or configuring the connection.
+         */
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Connection());
+                connections.incrementAndGet();
+                server.opened();
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Closes the connections that have waited longer than idleTimeout seconds to be read from: for their first or
+         *      next request line, or, when closing gracefully, for the client to close its side. Connections being answered
+         *      are left alone. The connections are checked at most once every SWEEP_MILLIS milliseconds.
+         */
+        private void expire() {
+            long now = System.nanoTime();
+            if (config.idleTimeout == 0 || now - lastSweep < TimeUnit.MILLISECONDS.toNanos(SWEEP_MILLIS)) {
+                return;
+            }
+            lastSweep = now;
+            long idleNanos = TimeUnit.SECONDS.toNanos(config.idleTimeout);
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (!(attachment instanceof Connection)) {
+                    continue;
+                }
+                Connection connection = (Connection) attachment;
+                if (connection.flag == null && now - connection.idleSince > idleNanos) {
+                    close(key);
+                }
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Reads the available request bytes into the connection's line buffer. Once a newline has been received, the
+         *      response is prepared and the connection switches to waiting for the socket to be writable.
+         *
+         *  @param key : The selection key of the connection.
+         *
+         *  @exception IOException : when an I/O error occurs while reading from the socket.
+         *
+         * NOTES:
+         *      A connection closed before sending a newline is closed without a response, as in the blocking engine.
+         *      A request line longer than BUFFER_SIZE cannot name an existing file and is answered with NOT_FOUND.
+         */
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            if (connection.closing) {
+                transfer.clear();
+                if (channel.read(transfer) < 0) {
+                    close(key);
+                }
+                return;
+            }
+            if (channel.read(connection.line) < 0) {
+                close(key);
+                return;
+            }
+            if (next(key, connection)) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Takes the next complete request line out of the connection's line buffer and prepares its response. A first
+         *      line of HELLO with a protocol version makes the connection keep-alive, with Nagle's algorithm disabled so that the end of each
+         *      response is not held back waiting for an acknowledgement, and is not answered.
+         *
+         *  @param key : The selection key of the connection.
+         *  @param connection : The connection the request was received on.
+         *
+         *      Inside a batch each line is answered as an entry of the batch (see entry), and the empty line ending it with
+         *      the END flag.
+         *
+         *  Returns:
+         *      True if a response has been prepared, false if no complete request line has been received yet.
+         *
+         *  @exception IOException : when the socket option cannot be set.
+         */
+        private boolean next(SelectionKey key, Connection connection) throws IOException {
+            ByteBuffer line = connection.line;
+            for (int i = 0; i < line.position(); i++) {
+                if (line.get(i) != '\n') {
+                    continue;
+                }
+                int end = i > 0 && line.get(i - 1) == '\r' ? i - 1 : i;
+                String request = new String(line.array(), 0, end, StandardCharsets.UTF_8);
+                line.flip().position(i + 1);
+                line.compact();
+                i = -1;
+                connection.idleSince = System.nanoTime();
+                if (connection.version == 0 && connection.requests == 0 && Server.version(request) > 0) {
+                    connection.version = Server.version(request);
+                    ((SocketChannel) key.channel()).setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    continue;
+                }
+                if (connection.batch) {
+                    if (request.isEmpty()) {
+                        connection.batch = false;
+                        connection.flag = ByteBuffer.wrap(Server.END);
+                    } else {
+                        entry(connection, request);
+                    }
+                    return true;
+                }
+                connection.requests++;
+                if (request.equals(Server.BATCH)) {
+                    connection.batch = true;
+                    continue;
+                }
+                if (request.startsWith(Server.PUT)) {
+                    connection.flag = ByteBuffer.wrap(Server.INVALID_SYMBOL);
+                    connection.last = true;
+                    return true;
+                }
+                if (request.startsWith(Server.GLOB)) {
+                    glob(connection, request);
+                    return true;
+                }
+                respond(connection, request, connection.version);
+                return true;
+            }
+            if (!line.hasRemaining()) {
+                connection.flag = ByteBuffer.wrap(Server.NOT_FOUND);
+                connection.line = null;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Purpose:
+         *      Prepares the response to a request line, a metadata request (see Server.stat), a listing request (see
+         *      Server.list), a filename, a range request (see Server.Range) or a conditional request (see
+         *      Server.Conditional): the INVALID_SYMBOL flag when the line is malformed or the filename contains a '/', the
+         *      NOT_FOUND flag when the file does not exist or cannot be opened, the NOT_MODIFIED flag when the client's
+         *      copy matches the file, otherwise the READY flag and header followed by the contents of the file as found by
+         *      Server.open, or the PARTIAL flag and header followed by the requested part of them.
+         *
+         *  @param connection : The connection the request was received on.
+         *  @param line : The request line.
+         *  @param version : The protocol version of the header to send.
+         *
+         * NOTES:
+         *      The first version 2 request for a file not yet in memory reads the whole file on the loop thread to compute
+         *      its checksum, as does the first metadata or conditional request for it; later requests reuse it until the
+         *      file changes. With the directory index computing checksums in the background it is normally ready.
+         *      A page of a listing is put together in memory before it is written, which MAX_PAGE_SIZE bounds. Listing is
+         *      refused without the directory index or a store, where each file of the page would be read whole to
+         *      compute its checksum.
+         */
+        private void respond(Connection connection, String line, int version) {
+            if (line.startsWith(Server.STAT)) {
+                connection.flag = server.stat(line.substring(Server.STAT.length()));
+                return;
+            }
+            if (line.startsWith(Server.LIST)) {
+                if (server.index == null && server.store == null) {
+                    connection.flag = ByteBuffer.wrap(Server.INVALID_SYMBOL);
+                    return;
+                }
+                ByteArrayOutputStream page = new ByteArrayOutputStream();
+                try {
+                    server.list(line, page);
+                    connection.flag = ByteBuffer.wrap(page.toByteArray());
+                } catch (IOException e) {
+                    System.err.println(e);
+                    connection.flag = ByteBuffer.wrap(Server.NOT_FOUND);
+                }
+                return;
+            }
+            Server.Range range = null;
+            Server.Conditional conditional = null;
+            String filename = line;
+            if (line.startsWith(Server.Range.RANGE)) {
+                range = Server.Range.parse(line);
+                filename = range == null ? null : range.filename;
+            } else if (line.startsWith(Server.Conditional.IF_NONE_MATCH)) {
+                conditional = Server.Conditional.parse(line);
+                filename = conditional == null ? null : conditional.filename;
+            }
+            if (filename == null || filename.contains("/")) {
+                connection.flag = ByteBuffer.wrap(Server.INVALID_SYMBOL);
+                return;
+            }
+            try {
+                connection.content = server.open(filename);
+                if (connection.content != null && conditional != null && conditional.matches(connection.content)) {
+                    connection.content.release();
+                    connection.content = null;
+                    connection.flag = ByteBuffer.wrap(Server.NOT_MODIFIED);
+                    return;
+                }
+                if (connection.content != null) {
+                    long size = connection.content.size();
+                    if (range == null) {
+                        connection.end = size;
+                        connection.flag = Server.ready(connection.content, version);
+                    } else {
+                        connection.position = range.start(size);
+                        connection.end = range.end(size);
+                        connection.flag = Server.partial(connection.content, version, connection.position,
+                            connection.end);
+                    }
+                    return;
+                }
+            } catch (IOException | InvalidPathException e) {
+                System.err.println(e);
+                if (connection.content != null) {
+                    connection.content.release();
+                    connection.content = null;
+                }
+            }
+            connection.flag = ByteBuffer.wrap(Server.NOT_FOUND);
+        }
+
+        /**
+         * Purpose:
+         *      Prepares the response to one line of a batch or glob request: its ENTRY header (see Server.entry) followed by
+         *      the response to the line, with a header of at least protocol version 1.
+         *
+         *  @param connection : The connection the request was received on.
+         *  @param line : The request line.
+         */
+        private void entry(Connection connection, String line) {
+            respond(connection, line, Math.max(connection.version, 1));
+            ByteBuffer entry = Server.entry(line);
+            connection.flag = ByteBuffer.allocate(entry.remaining() + connection.flag.remaining())
+                .put(entry).put(connection.flag).flip();
+        }
+
+        /**
+         * Purpose:
+         *      Prepares the answer to a glob request: the names of the matching files are looked up (see Server.match)
+         *      and the first is answered as an entry, the rest in turn as each is written (see finish). A malformed pattern
+         *      is answered with the INVALID_SYMBOL flag, and a pattern matching no file with the END flag alone.
+         *
+         *  @param connection : The connection the request was received on.
+         *  @param line : The request line.
+         *
+         * NOTES:
+         *      The names are matched on the loop thread; with the directory index disabled this lists the directory.
+         */
+        private void glob(Connection connection, String line) {
+            List<String> names;
+            try {
+                names = server.match(line.substring(Server.GLOB.length()));
+            } catch (IOException e) {
+                System.err.println(e);
+                names = null;
+            }
+            if (names == null) {
+                connection.flag = ByteBuffer.wrap(Server.INVALID_SYMBOL);
+                return;
+            }
+            connection.entries = new ArrayDeque<>(names);
+            nextEntry(connection);
+        }
+
+        private void nextEntry(Connection connection) {
+            String filename = connection.entries.poll();
+            if (filename == null) {
+                connection.entries = null;
+                connection.flag = ByteBuffer.wrap(Server.END);
+            } else {
+                entry(connection, filename);
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Writes as much of the response as the socket accepts without blocking. File data is sent with
+         *      Content.transferTo, so the kernel moves a file on disk to the socket without a copy through Java memory and
+         *      cached or mapped contents are written straight from memory.
+         *      With zero-copy disabled it is read with positional reads into the loop's shared transfer buffer; whatever the
+         *      socket does not accept is read again on the next event, so no data is held for the connection between events.
+         *      Once the response has been written the connection is finished (see finish).
+         *
+         *  @param key : The selection key of the connection.
+         *
+         *  @exception IOException : when an I/O error occurs while reading the file or writing to the socket.
+         *
+         * NOTES:
+         *      At most MAX_WRITES_PER_EVENT writes are made per event so that one fast client cannot starve the others.
+         *      A transfer shorter than TRANSFER_SIZE is taken to mean the socket is full, and the loop waits for the next event.
+         *      A zero-copy transfer that writes nothing because the file ended early fails like a short read does.
+         */
+        private void write(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            if (connection.flag.hasRemaining()) {
+                channel.write(connection.flag);
+                if (connection.flag.hasRemaining()) {
+                    return;
+                }
+            }
+            Content content = connection.content;
+            for (int i = 0; content != null && i < MAX_WRITES_PER_EVENT; i++) {
+                if (connection.position >= connection.end) {
+                    break;
+                }
+                if (config.zeroCopy) {
+                    long written = content.transferTo(connection.position, connection.end - connection.position, channel);
+                    if (written == 0 && ended(content, connection.position)) {
+                        throw new EOFException("file ended after " + connection.position + " of " + connection.end + " bytes");
+                    }
+                    connection.position += written;
+                    if (connection.position < connection.end && written < TRANSFER_SIZE) {
+                        return;
+                    }
+                    continue;
+                }
+                transfer.clear();
+                if (connection.end - connection.position < TRANSFER_SIZE) {
+                    transfer.limit((int) (connection.end - connection.position));
+                }
+                if (content.read(transfer, connection.position) < 0) {
+                    throw new EOFException("file ended after " + connection.position + " of " + connection.end + " bytes");
+                }
+                transfer.flip();
+                int written = channel.write(transfer);
+                connection.position += written;
+                if (transfer.hasRemaining()) {
+                    return;
+                }
+            }
+            if (content == null || connection.position >= connection.end) {
+                finish(key);
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Tells a transferTo that wrote nothing because the socket is full from one that wrote nothing because the
+         *      content ends before position, e.g. a file truncated after its length was announced, by reading a byte.
+         */
+        private boolean ended(Content content, long position) throws IOException {
+            if (position >= content.size()) {
+                return true;
+            }
+            transfer.clear().limit(1);
+            return content.read(transfer, position) < 0;
+        }
+
+        /**
+         * Purpose:
+         *      Ends a response once it has been written. A glob request goes on to its next matching file, and a batch to
+         *      its next line. A keep-alive connection with requests left goes on to the next request line, which may
+         *      already be in its line buffer; any other connection is closed. A keep-alive connection that has reached
+         *      maxRequests, or a connection flagged last, is closed gracefully: its output is shut down and data sent after
+         *      the last request is read and discarded until the client closes, as closing with unread data would reset the
+         *      connection and could discard the end of the last response.
+         *
+         *  @param key : The selection key of the connection.
+         *
+         *  @exception IOException : when an I/O error occurs while preparing the next response.
+         */
+        private void finish(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            if (connection.content != null) {
+                connection.content.release();
+                connection.content = null;
+            }
+            connection.flag = null;
+            connection.position = 0;
+            connection.end = 0;
+            if (connection.entries != null) {
+                nextEntry(connection);
+                return;
+            }
+            if ((connection.version == 0 && !connection.batch && !connection.last) || connection.line == null) {
+                close(key);
+                return;
+            }
+            connection.idleSince = System.nanoTime();
+            if (connection.last || (connection.requests >= config.maxRequests && !connection.batch)) {
+                ((SocketChannel) key.channel()).shutdownOutput();
+                connection.closing = true;
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (!next(key, connection)) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Closes the connection and the file it was being sent.
+         *
+         *  @param key : The selection key of the connection.
+         */
+        private void close(SelectionKey key) {
+            key.cancel();
+            Connection connection = (Connection) key.attach(null);
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+            if (connection == null) {
+                return;
+            }
+            if (connection.content != null) {
+                connection.content.release();
+            }
+            connections.decrementAndGet();
+            server.closed();
+        }
+    }
+}
@@ -1,7 +1,21 @@
 import java.net.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 /**
  * Purpose:
@@ -14,73 +28,1245 @@ import java.util.regex.Pattern;
 public class Server {
 
 
-    private static final byte[] NOT_FOUND = "N".getBytes();
-    private static final byte[] INVALID_SYMBOL = "I".getBytes();
-    private static final byte[] READY = "R".getBytes();
-    private static final String directory = "Images/";
-    private static final int BUFFER_SIZE = 1024;
+    static final byte[] NOT_FOUND = "N".getBytes();
+    static final byte[] INVALID_SYMBOL = "I".getBytes();
+    static final byte[] READY = "R".getBytes();
+    static final byte[] BUSY = "B".getBytes();
+    static final byte[] PARTIAL = "P".getBytes();
+    static final byte[] ENTRY = "F".getBytes();
+    static final byte[] END = "E".getBytes();
+    static final byte[] METADATA = "M".getBytes();
+    static final byte[] NOT_MODIFIED = "U".getBytes();
+    static final byte[] MORE = "C".getBytes();
+    static final byte[] FAILED = "X".getBytes();
+    static final String HELLO = "/HELLO ";
+    static final int VERSION = 2;
+    static final String BATCH = "/BATCH";
+    static final String GLOB = "/GLOB ";
+    static final String STAT = "/STAT ";
+    static final String LIST = "/LIST ";
+    static final int MAX_PAGE_SIZE = 10000;
+    static final String PUT = "/PUT ";
+    static final String UPLOADS = ".uploads";
+    static final int UPLOAD_BUFFER_SIZE = 64 * 1024;
+    static final String directory = "Images/";
+    static final String packDirectory = "Packs/";
+    static final String chunkDirectory = "Chunks/";
+    static final int BUFFER_SIZE = 1024;
     protected int port;
+    protected ServerConfig config;
+    final MappedFiles mappedFiles;
+    final ContentCache contentCache;
+    final NegativeCache negativeCache;
+    final DirectoryIndex index;
+    final FileStore store;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicInteger peakQueued = new AtomicInteger();
 
     /**
      * Constructor
      * @param port : port for the server to listen on
      */
     public Server(int port) {
-        this.port = port;
+        this(configFor(port));
+    }
+
+    /**
+     * Constructor
+     * @param config : startup settings for the server
+     */
+    public Server(ServerConfig config) {
+        this.config = config;
+        this.port = config.port;
+        this.store = config.store != ServerConfig.Store.FILES ? createStore() : null;
+        boolean files = store == null;
+        this.mappedFiles = files && config.mmap ? new MappedFiles(directory, config.mmapThreshold, config.mmapIdle) : null;
+        this.contentCache = files && config.cacheSize > 0
+            ? new ContentCache(directory, config.cacheSize, config.cacheMaxEntry, config.cacheOffHeap) : null;
+        this.index = files && config.index ? createIndex() : null;
+        this.negativeCache = files && index == null && config.negativeSize > 0
+            ? new NegativeCache(directory, config.negativeSize, config.negativeTtl) : null;
+    }
+
+    /**
+     * Purpose:
+     *      Opens the pack store or chunk store the files are served from when the server is configured with --store=pack
+     *      or --store=chunks, and starts its compactor unless disabled.
+     *
+     *  Returns:
+     *      The store. If it cannot be opened the program closes, as there would be no files to serve.
+     *
+     *  @exception IOException : when the store cannot be read.
+     */
+    private FileStore createStore() {
+        try {
+            FileStore store = config.store == ServerConfig.Store.CHUNKS
+                ? new ChunkStore(chunkDirectory, config.packSegmentSize)
+                : new PackStore(packDirectory, config.packSegmentSize);
+            if (config.packCompactInterval > 0){
+                store.startCompactor(config.packCompactInterval, config.packCompactRate);
+            }
+            return store;
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(-1);
+            return null;
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Builds the index of the served directory, and has it drop the cached contents and mappings of every file that
+     *      changes or is deleted.
+     *
+     *  Returns:
+     *      The index, or null if the directory could not be indexed, in which case files are looked up on disk.
+     *
+     *  @exception IOException : when the directory cannot be read or watched.
+     */
+    private DirectoryIndex createIndex() {
+        DirectoryIndex created;
+        try {
+            created = new DirectoryIndex(directory, config.indexHandles, config.indexChecksums);
+        } catch (IOException e) {
+            System.err.println(e);
+            return null;
+        }
+        created.addListener(filename -> {
+            if (contentCache != null){
+                contentCache.invalidate(filename);
+            }
+            if (mappedFiles != null){
+                mappedFiles.invalidate(filename);
+            }
+        });
+        return created;
+    }
+
+    private static ServerConfig configFor(int port) {
+        ServerConfig config = new ServerConfig();
+        config.port = port;
+        return config;
+    }
+
+    /**
+     * Purpose:
+     *      A request for part of a file, in the form "/RANGE offset length filename": length bytes of the file starting
+     *      at offset, or everything from offset to the end of the file when length is -1. It is answered with the
+     *      PARTIAL flag and header (see partial) followed by those bytes, so an interrupted transfer can be resumed from
+     *      the last byte received.
+     */
+    static class Range {
+        static final String RANGE = "/RANGE ";
+
+        final long offset;
+        final long length;
+        final String filename;
+
+        Range(long offset, long length, String filename) {
+            this.offset = offset;
+            this.length = length;
+            this.filename = filename;
+        }
+
+        /**
+         * Purpose:
+         *      Parses a range request line.
+         *
+         *  @param line : The request line, starting with RANGE.
+         *
+         *  Returns:
+         *      The range, or null if the offset or length is not a number, the offset is negative, the length is
+         *      negative other than -1, or the filename is missing.
+         */
+        static Range parse(String line) {
+            String[] fields = line.substring(RANGE.length()).split(" ", 3);
+            if (fields.length < 3 || fields[2].isEmpty()){
+                return null;
+            }
+            try {
+                long offset = Long.parseLong(fields[0]);
+                long length = Long.parseLong(fields[1]);
+                if (offset < 0 || length < -1){
+                    return null;
+                }
+                return new Range(offset, length, fields[2]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Returns the offset of the first byte sent from a file of the given size: the requested offset, or the end
+         *      of the file when the offset is beyond it.
+         */
+        long start(long size) {
+            return Math.min(offset, size);
+        }
+
+        /**
+         * Purpose:
+         *      Returns the offset after the last byte sent from a file of the given size.
+         */
+        long end(long size) {
+            long start = start(size);
+            return length < 0 ? size : start + Math.min(length, size - start);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      A conditional request, in the form "/IFNONE checksum filename" with the CRC32 checksum of the client's copy of
+     *      the file as 8 hexadecimal digits. When the file's checksum is the same it is answered with the NOT_MODIFIED
+     *      flag alone, otherwise like a request for the filename, so a client that already has the file does not
+     *      receive it again.
+     */
+    static class Conditional {
+        static final String IF_NONE_MATCH = "/IFNONE ";
+
+        final long checksum;
+        final String filename;
+
+        Conditional(long checksum, String filename) {
+            this.checksum = checksum;
+            this.filename = filename;
+        }
+
+        /**
+         * Purpose:
+         *      Parses a conditional request line.
+         *
+         *  @param line : The request line, starting with IF_NONE_MATCH.
+         *
+         *  Returns:
+         *      The conditional request, or null if the checksum is not a 32 bit hexadecimal number or the filename is
+         *      missing.
+         */
+        static Conditional parse(String line) {
+            String[] fields = line.substring(IF_NONE_MATCH.length()).split(" ", 2);
+            if (fields.length < 2 || fields[1].isEmpty() || fields[0].isEmpty() || fields[0].length() > 8){
+                return null;
+            }
+            try {
+                return new Conditional(Long.parseLong(fields[0], 16), fields[1]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Returns whether the client's copy is the same as the contents of the file.
+         *
+         *  @param content : The contents of the file.
+         *
+         *  @exception IOException : when an I/O error occurs while reading the file to compute its checksum.
+         */
+        boolean matches(Content content) throws IOException {
+            return content.checksum() == checksum;
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Returns the PARTIAL flag followed by the header of a range of the file: the size of the whole file, the offset
+     *      of the first byte sent and the number of bytes sent, each as 8 bytes in network byte order, then in protocol
+     *      version 2 the CRC32 checksum of the whole file, so a client that has resumed a transfer can verify the file
+     *      it has put together.
+     *
+     *  @param content : The contents of the file.
+     *  @param version : The protocol version of the connection, 0 if it has none.
+     *  @param start : Offset of the first byte sent.
+     *  @param end : Offset after the last byte sent.
+     *
+     *  @exception IOException : when an I/O error occurs while reading the file to compute its checksum.
+     */
+    static ByteBuffer partial(Content content, int version, long start, long end) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PARTIAL.length + 3 * Long.BYTES + (version >= 2 ? Integer.BYTES : 0));
+        header.put(PARTIAL).putLong(content.size()).putLong(start).putLong(end - start);
+        if (version >= 2){
+            header.putInt((int) content.checksum());
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Purpose:
+     *      Returns the header that introduces one file of a batch (see batch) or glob request: the ENTRY flag, then the
+     *      length of the request line as 2 bytes in network byte order and the line itself in "utf-8". It is followed by
+     *      the response to the line, always with a header of at least protocol version 1 so the client can tell where
+     *      the file ends.
+     *
+     *  @param line : The request line answered, e.g. the name of the file.
+     */
+    static ByteBuffer entry(String line) {
+        byte[] name = line.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(ENTRY.length + Short.BYTES + name.length);
+        header.put(ENTRY).putShort((short) name.length).put(name);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Purpose:
+     *      Answers a metadata request, STAT followed by a filename, without sending the file: the METADATA flag followed
+     *      by the size of the file and its modification time in milliseconds since the epoch, each as 8 bytes in network
+     *      byte order, and its CRC32 checksum as 4 bytes, so a client can check whether its copy is current.
+     *      With the directory index enabled all three are taken from memory, the checksum being computed once for each
+     *      version of the file, normally in the background as soon as it appears (see DirectoryIndex). With the pack
+     *      store they are all kept in the store's index. Otherwise the attributes are read from the filesystem and the checksum from the file's
+     *      contents (see open), which is kept with them while the file stays in the content cache.
+     *
+     *  @param filename : The name of the file.
+     *
+     *  Returns:
+     *      The METADATA flag and fields, the INVALID_SYMBOL flag when the filename contains a '/', or the NOT_FOUND flag
+     *      when the file does not exist or cannot be read.
+     */
+    ByteBuffer stat(String filename) {
+        if (filename.contains("/")){
+            return ByteBuffer.wrap(INVALID_SYMBOL);
+        }
+        try {
+            long size;
+            long modified;
+            long checksum;
+            if (store != null){
+                FileStore.Entry entry = store.get(filename);
+                if (entry == null){
+                    return ByteBuffer.wrap(NOT_FOUND);
+                }
+                size = entry.size();
+                modified = entry.modified();
+                checksum = entry.checksum();
+            }
+            else if (index != null){
+                DirectoryIndex.Entry entry = index.get(filename);
+                if (entry == null){
+                    return ByteBuffer.wrap(NOT_FOUND);
+                }
+                size = entry.size;
+                modified = entry.modified;
+                checksum = entry.checksum();
+            }
+            else {
+                if (negativeCache != null && negativeCache.contains(filename)){
+                    return ByteBuffer.wrap(NOT_FOUND);
+                }
+                BasicFileAttributes attributes = DirectoryIndex.stat(directory, filename);
+                if (!attributes.isRegularFile()){
+                    return ByteBuffer.wrap(NOT_FOUND);
+                }
+                Content content = open(filename);
+                if (content == null){
+                    return ByteBuffer.wrap(NOT_FOUND);
+                }
+                try {
+                    size = content.size();
+                    modified = attributes.lastModifiedTime().toMillis();
+                    checksum = content.checksum();
+                } finally {
+                    content.release();
+                }
+            }
+            ByteBuffer metadata = ByteBuffer.allocate(METADATA.length + 2 * Long.BYTES + Integer.BYTES);
+            metadata.put(METADATA).putLong(size).putLong(modified).putInt((int) checksum);
+            metadata.flip();
+            return metadata;
+        } catch (NoSuchFileException e) {
+            missing(filename, e);
+        } catch (IOException | InvalidPathException e) {
+            System.err.println(e);
+        }
+        return ByteBuffer.wrap(NOT_FOUND);
+    }
+
+    /**
+     * Purpose:
+     *      Answers a listing request, "/LIST limit" or "/LIST limit after": the files of the directory in sorted order
+     *      of name, starting after the name given, at most limit (and at most MAX_PAGE_SIZE) of them. Each file is sent
+     *      as its ENTRY header (see entry) followed by its metadata (see stat). The page ends with the MORE flag followed
+     *      by the name to pass as after to list the next page, encoded like the name of an entry, or with the END flag
+     *      when no files follow. A malformed request is answered with the INVALID_SYMBOL flag.
+     *      With the directory index or the pack store the names are read from its sorted set, starting at the requested
+     *      name.
+     *      Otherwise the directory is read as a stream keeping only the first limit names after the requested one, so
+     *      neither way holds more than one page of names however large the directory.
+     *
+     *  @param line : The request line.
+     *  @param out : The stream the response is written to.
+     *
+     * NOTES:
+     *      Listing without the index reads the whole directory for each page.
+     *      Files deleted while the page is sent are left out of it.
+     *
+     *  @exception IOException : when the directory cannot be listed or the response cannot be written.
+     */
+    void list(String line, OutputStream out) throws IOException {
+        String[] fields = line.substring(LIST.length()).split(" ", 2);
+        int limit;
+        try {
+            limit = Integer.parseInt(fields[0]);
+        } catch (NumberFormatException e) {
+            limit = 0;
+        }
+        String after = fields.length > 1 ? fields[1] : null;
+        if (limit < 1 || (after != null && after.contains("/"))){
+            out.write(INVALID_SYMBOL, 0, INVALID_SYMBOL.length);
+            return;
+        }
+        limit = Math.min(limit, MAX_PAGE_SIZE);
+        List<String> page = new ArrayList<>();
+        boolean more;
+        Iterator<String> names = names(after);
+        if (names != null){
+            while (page.size() < limit && names.hasNext()){
+                page.add(names.next());
+            }
+            more = names.hasNext();
+        }
+        else {
+            TreeSet<String> first = new TreeSet<>();
+            more = false;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(directory))) {
+                for (Path file : files){
+                    String filename = file.getFileName().toString();
+                    if (after != null && filename.compareTo(after) <= 0){
+                        continue;
+                    }
+                    first.add(filename);
+                    if (first.size() > limit){
+                        first.pollLast();
+                        more = true;
+                    }
+                }
+            }
+            page.addAll(first);
+        }
+        for (String filename : page){
+            ByteBuffer metadata = stat(filename);
+            if (metadata.get(0) == METADATA[0]){
+                out.write(entry(filename).array());
+                out.write(metadata.array());
+            }
+        }
+        if (more){
+            ByteBuffer cursor = entry(page.get(page.size() - 1));
+            cursor.put(0, MORE[0]);
+            out.write(cursor.array());
+        }
+        else {
+            out.write(END, 0, END.length);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Returns the sorted names of the files indexed by the pack store or the directory index, starting after a given
+     *      name, or null when neither is used and the directory must be listed.
+     *
+     *  @param after : The name to start after, or null to start from the first.
+     */
+    private Iterator<String> names(String after) {
+        if (store != null){
+            return store.names(after);
+        }
+        if (index != null){
+            return (after == null ? index.names() : index.names().tailSet(after, false)).iterator();
+        }
+        return null;
+    }
+
+    /**
+     * Purpose:
+     *      Finds the files whose names match a glob pattern, e.g. "*.jpg" (see FileSystem.getPathMatcher for the
+     *      syntax), in the directory index or the pack store when enabled and otherwise by listing the directory.
+     *
+     *  @param pattern : The glob pattern.
+     *
+     *  Returns:
+     *      The names of the matching files in sorted order, or null if the pattern contains a '/' or is malformed.
+     *
+     *  @exception IOException : when the directory cannot be listed.
+     */
+    List<String> match(String pattern) throws IOException {
+        if (pattern.contains("/")){
+            return null;
+        }
+        PathMatcher matcher;
+        try {
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        List<String> names = new ArrayList<>();
+        Iterator<String> sorted = names(null);
+        if (sorted != null){
+            while (sorted.hasNext()){
+                String filename = sorted.next();
+                if (matcher.matches(Paths.get(filename))){
+                    names.add(filename);
+                }
+            }
+        }
+        else {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(directory))) {
+                for (Path file : files){
+                    if (Files.isRegularFile(file) && matcher.matches(file.getFileName())){
+                        names.add(file.getFileName().toString());
+                    }
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
     }
 
     /**
      * Purpose:
-     *      Creates a FileInputStream to read the data in from the requested file. 
-     *      If successful will send a READY flag.
-     *      Reads data into a buffer of size BUFFER_SIZE (until the read() function returns -1)
-     *      while sending the buffered data to the client in byte form.
+     *      Finds the requested file and returns its contents ready to be sent, taken from the first of these that has them:
+     *            - the content cache, for files small enough to be cached.
+     *            - the file's shared memory mapping, when memory mapping is enabled and the file is large enough.
+     *            - the open file itself, sent with transferTo.
+     *      With the directory index enabled, whether the file exists and its size and modification time are looked up in
+     *      memory, and the file is read through the index's shared channel. Otherwise they are read from the filesystem,
+     *      and missing files are remembered in the negative cache.
+     *      With the pack store, the file is looked up in the store's index and read from its region of a segment; with the
+     *      chunk store, it is read from the regions of its chunks in turn.
+     *
+     *  @param filename : The name of the requested file.
+     *
+     *  Returns:
+     *      The contents of the file, which the caller must release when its transfer is finished, or null if the file
+     *      does not exist.
+     *
+     *  @exception IOException : when an I/O error occurs while opening or reading the file.
+     *  @exception InvalidPathException : when the filename cannot be used as a path, e.g. it contains a NUL character.
+     */
+    Content open(String filename) throws IOException {
+        if (store != null){
+            FileStore.Entry stored = store.get(filename);
+            return stored == null ? null : stored.open();
+        }
+        DirectoryIndex.Entry entry = null;
+        long size;
+        long modified;
+        if (index != null){
+            entry = index.get(filename);
+            if (entry == null){
+                return null;
+            }
+            size = entry.size;
+            modified = entry.modified;
+        }
+        else {
+            if (negativeCache != null && negativeCache.contains(filename)){
+                return null;
+            }
+            try {
+                BasicFileAttributes attributes = DirectoryIndex.stat(directory, filename);
+                size = attributes.size();
+                modified = attributes.lastModifiedTime().toMillis();
+            } catch (NoSuchFileException e){
+                missing(filename, e);
+                return null;
+            }
+        }
+        Content content = contentCache == null ? null : contentCache.get(filename, size, modified);
+        if (content == null && mappedFiles != null){
+            content = mappedFiles.acquire(filename, size, modified);
+        }
+        if (content != null){
+            return content;
+        }
+        if (entry != null){
+            return entry.open();
+        }
+        FileChannel file = FileChannel.open(Paths.get(directory, filename), StandardOpenOption.READ);
+        return new FileContent(file, file.size(), () -> {
+            try {
+                file.close();
+            } catch (IOException e){
+                System.err.println(e);
+            }
+        });
+    }
+
+    /**
+     * Purpose:
+     *      Reads the protocol version from the first line of a connection. A connection opened with HELLO followed by a
+     *      version is kept alive, and each READY flag is followed by a header whose fields depend on the version:
+     *            - 1 : the length of the file, as 8 bytes in network byte order.
+     *            - 2 : the length of the file, followed by its CRC32 checksum as 4 bytes in network byte order.
+     *
+     *  @param line : The first line received on the connection.
+     *
+     *  Returns:
+     *      The version requested, or 0 if the line is not HELLO with a version from 1 to VERSION, in which case the line
+     *      is a request and the connection is closed after answering it.
+     */
+    static int version(String line) {
+        if (line == null || !line.startsWith(HELLO)){
+            return 0;
+        }
+        try {
+            int version = Integer.parseInt(line.substring(HELLO.length()));
+            return version >= 1 && version <= VERSION ? version : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Returns the READY flag followed by the header of the file for the protocol version of the connection (see
+     *      version). On a connection without a version the flag is sent alone, as the end of the file is signalled by
+     *      closing the connection.
+     *
+     *  @param content : The contents of the file.
+     *  @param version : The protocol version of the connection, 0 if it has none.
+     *
+     *  @exception IOException : when an I/O error occurs while reading the file to compute its checksum.
+     */
+    static ByteBuffer ready(Content content, int version) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(READY.length + (version >= 1 ? Long.BYTES : 0) + (version >= 2 ? Integer.BYTES : 0));
+        header.put(READY);
+        if (version >= 1){
+            header.putLong(content.size());
+        }
+        if (version >= 2){
+            header.putInt((int) content.checksum());
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Purpose:
+     *      Finds the requested file (see open). If successful will send a READY flag, followed by the header of the file
+     *      for the protocol version of the connection (see ready), or for a range request the PARTIAL flag and header
+     *      (see partial).
+     *      When the connection has a SocketChannel the file is sent with transferTo, which for a file on disk lets the
+     *      kernel move the data from the file to the socket (sendfile) without copying it through the Java heap, and for
+     *      cached or mapped contents writes them straight from memory. Otherwise, or when zero-copy is disabled, reads
+     *      data into a buffer of size BUFFER_SIZE (until the read() function returns -1) while sending the buffered data
+     *      to the client in byte form.
      *  
      *  @param filename : The name of the requested file to send.
      *  @param outStream : A BufferedOutputStreamwith an established connection to the client.
+     *  @param channel : The SocketChannel of the connection, or null if the socket has no channel.
+     *  @param version : The protocol version of the connection, 0 if it is closed after the response.
+     *  @param range : The part of the file requested, or null for the whole file.
+     *  @param conditional : The checksum of the client's copy of the file, or null if it has none.
      * 
      *  Returns:
-     *      True if successful, false otherwise.
+     *      True if the file was sent, or answered NOT_MODIFIED as the client's copy matches it; false if it does not
+     *      exist or cannot be opened.
      * 
      * NOTES:
      *      If the file does not exist the server will respond with the NOT_FOUND flag to inform the client and return false.
+     *      When the length of the data was announced, a file that ends before it is reported as an error, since the
+     *      client would otherwise take the next response as the rest of the file.
      * 
-     *  @exception IOException : when an I/O error occurs when creating the file input stream.
+     *  @exception IOException : when an I/O error occurs when computing the checksum of the file or sending it.
+     *  @exception InvalidPathException : when the filename cannot be used as a path, e.g. it contains a NUL character.
      *      
      */
-    private boolean readFile(String filename, BufferedOutputStream outStream ){
-        try(
-            BufferedInputStream inFile = new BufferedInputStream(new FileInputStream(directory + filename), BUFFER_SIZE);
-        ){
-            outStream.write(READY, 0, READY.length);
+    private boolean readFile(String filename, BufferedOutputStream outStream, SocketChannel channel, int version, Range range,
+            Conditional conditional) throws IOException {
+        Content content;
+        try {
+            content = open(filename);
+        } catch (IOException | InvalidPathException e){
+            System.err.println(e);
+            return false;
+        }
+        if (content == null){
+            return false;
+        }
+        try {
+            if (conditional != null && conditional.matches(content)){
+                outStream.write(NOT_MODIFIED, 0, NOT_MODIFIED.length);
+                return true;
+            }
+            long size = content.size();
+            long position = range == null ? 0 : range.start(size);
+            long end = range == null ? size : range.end(size);
+            ByteBuffer header = range == null ? ready(content, version) : partial(content, version, position, end);
+            outStream.write(header.array());
             outStream.flush();
 
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int done; 
+            if (channel != null && config.zeroCopy){
+                long done;
 
-            while((done = inFile.read(buffer)) != -1){
-                outStream.write(buffer, 0, done);
-                outStream.flush();
+                while(position < end && (done = content.transferTo(position, end - position, channel)) > 0){
+                    position += done;
+                }
+            }
+            else {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                int done; 
+
+                while(position < end && (done = content.read(buffer, position)) != -1){
+                    outStream.write(buffer.array(), 0, done);
+                    outStream.flush();
+                    position += done;
+                    buffer.clear();
+                    if (end - position < buffer.capacity()){
+                        buffer.limit((int) (end - position));
+                    }
+                }
+            }
+            if ((version > 0 || range != null) && position < end){
+                throw new EOFException(filename + " ended after " + position + " of " + end + " bytes");
             }
             return true;
 
-        } catch (IOException e){
+        } finally {
+            content.release();
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Records that a requested file does not exist, so that further requests for it are answered from the
+     *      negative cache.
+     *
+     *  @param filename : The name of the requested file.
+     *  @param e : The exception reporting the missing file.
+     */
+    void missing(String filename, NoSuchFileException e) {
+        System.err.println(e);
+        if (negativeCache != null){
+            negativeCache.add(filename);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Reads data from the client socket encoded in "utf-8" until a newline is received (see readLine), then calls
+     *      readFile to send the data from the requested file to the client. If the file does not exist, the server will
+     *      respond with the NOT_FOUND flag. The socket is closed once the response has been sent.
+     *      A connection whose first line is MUX carries multiplexed streams and is served by a Multiplexer.
+     *      A PUT request uploads a file (see upload).
+     *      A BATCH or GLOB request asks for many files at once, which are sent back to back each preceded by its name
+     *      (see batch and glob); it counts as one request.
+     *      A connection whose first line is HELLO with a protocol version (see version) is kept alive: it carries any
+     *      number of requests, each answered in turn, and is closed when the client closes it, after maxRequests requests
+     *      (see linger), or when no request arrives within idleTimeout seconds.
+     *
+     *  @param clientSocket : An accepted connection to the client.
+     *
+     * NOTES:
+     *      If the message received from client contains any '/' characters, the server will respond with the INVALID_SYMBOL flag
+     *      and close the connection, or wait for the next request on a keep-alive connection.
+     *      Nagle's algorithm is disabled on a keep-alive connection, as otherwise the last segment of each response can
+     *      wait for the client's delayed acknowledgement before it is sent.
+     *      A connection occupies its worker thread while it waits for a request line, its first one included, so in POOL
+     *      mode idleTimeout bounds how long idle or silent clients can hold workers away from new connections.
+     *
+     *  @exception IOException : when an I/O error occurs while reading the request or writing the response.
+     *  @exception SecurityException : when a security manager refuses access to the requested file.
+     */
+    private void handle(Socket clientSocket) {
+        try (
+            Socket socket = clientSocket;
+            BufferedOutputStream outStream = new BufferedOutputStream(socket.getOutputStream());
+            BufferedInputStream in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+        ) {
+            socket.setSoTimeout(config.idleTimeout * 1000);
+            String inputLine = readLine(in);
+            if (Multiplexer.MUX.equals(inputLine)){
+                new Multiplexer(this, socket, in, outStream).serve();
+                return;
+            }
+            int version = version(inputLine);
+            if (version > 0){
+                socket.setTcpNoDelay(true);
+                inputLine = readLine(in);
+            }
+            int requests = 0;
+            while (inputLine != null){
+                if (inputLine.startsWith(PUT)){
+                    if (!upload(inputLine, in, outStream)){
+                        outStream.flush();
+                        linger(socket, in);
+                        return;
+                    }
+                }
+                else if (inputLine.equals(BATCH)){
+                    batch(in, outStream, socket.getChannel(), version);
+                }
+                else if (inputLine.startsWith(GLOB)){
+                    glob(inputLine, outStream, socket.getChannel(), version);
+                }
+                else {
+                    respond(inputLine, outStream, socket.getChannel(), version);
+                }
+                outStream.flush();
+                if (version == 0){
+                    return;
+                }
+                if (++requests >= config.maxRequests){
+                    linger(socket, in);
+                    return;
+                }
+                inputLine = readLine(in);
+            }
+        } catch (SocketTimeoutException e) {
+            return;
+        } catch (IOException e) {
             System.err.println(e);
-        } 
-        return false;
+        } catch (SecurityException e) {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Answers one request line: a metadata request (see stat), a listing request (see list), a range request (see
+     *      Range), a conditional request (see Conditional) or a filename. A line that is none of these, or whose filename
+     *      contains a '/', is answered with the INVALID_SYMBOL flag; a file that cannot be sent with the NOT_FOUND flag.
+     *
+     *  @param line : The request line.
+     *  @param outStream : A BufferedOutputStream with an established connection to the client.
+     *  @param channel : The SocketChannel of the connection, or null if the socket has no channel.
+     *  @param version : The protocol version of the connection, 0 if it is closed after the response.
+     *
+     *  @exception IOException : when an I/O error occurs while sending the response.
+     */
+    private void respond(String line, BufferedOutputStream outStream, SocketChannel channel, int version) throws IOException {
+        if (line.startsWith(STAT)){
+            outStream.write(stat(line.substring(STAT.length())).array());
+            return;
+        }
+        if (line.startsWith(LIST)){
+            list(line, outStream);
+            return;
+        }
+        Range range = null;
+        Conditional conditional = null;
+        String filename = line;
+        if (line.startsWith(Range.RANGE)){
+            range = Range.parse(line);
+            filename = range == null ? null : range.filename;
+        }
+        else if (line.startsWith(Conditional.IF_NONE_MATCH)){
+            conditional = Conditional.parse(line);
+            filename = conditional == null ? null : conditional.filename;
+        }
+        if (filename == null || filename.contains("/")){
+            outStream.write(INVALID_SYMBOL, 0, INVALID_SYMBOL.length);
+        }
+        else if(!readFile(filename, outStream, channel, version, range, conditional)){
+            outStream.write(NOT_FOUND, 0, NOT_FOUND.length);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Receives an upload, "/PUT length filename" followed by length bytes of data and the CRC32 checksum of the data
+     *      as 4 bytes in network byte order. The data is streamed through a buffer of UPLOAD_BUFFER_SIZE bytes into a
+     *      temporary file in the UPLOADS subdirectory of the served directory, which is then renamed over filename in one
+     *      step, so a download never sees a partly written file: it gets either the old file or the new one, and
+     *      transfers already reading the old file carry on from it. With a pack or chunk store the temporary file, kept in
+     *      the store's directory, is instead added to the store. The directory index, or without it the caches, are updated at
+     *      once (see stored), and the client is answered with the METADATA of the new file (see stat).
+     *      A file whose checksum does not match is discarded and answered with the FAILED flag.
+     *
+     *  @param line : The request line.
+     *  @param in : The buffered stream of the client's requests.
+     *  @param outStream : A BufferedOutputStream with an established connection to the client.
+     *
+     *  Returns:
+     *      True if the data was read to its end and the connection can carry further requests; false if it has been
+     *      answered with INVALID_SYMBOL, because uploads are disabled, the line is malformed, the length is over
+     *      uploadMaxSize or the filename contains a '/' or starts with '.', or with FAILED, because the file could not be
+     *      written, and must be closed as the rest of its data is unread.
+     *
+     * NOTES:
+     *      The temporary file is flushed to disk before it is renamed, so a crash cannot leave a renamed file with
+     *      missing data.
+     *
+     *  @exception IOException : when an I/O error occurs while reading the data or answering the client.
+     */
+    private boolean upload(String line, InputStream in, BufferedOutputStream outStream) throws IOException {
+        String[] fields = line.substring(PUT.length()).split(" ", 2);
+        long length;
+        try {
+            length = Long.parseLong(fields[0]);
+        } catch (NumberFormatException e) {
+            length = -1;
+        }
+        String filename = fields.length > 1 ? fields[1] : "";
+        if (!config.uploads || length < 0 || length > config.uploadMaxSize || filename.isEmpty()
+                || filename.startsWith(".") || filename.contains("/")){
+            outStream.write(INVALID_SYMBOL, 0, INVALID_SYMBOL.length);
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        Path temp = null;
+        Path target;
+        long checksum;
+        try {
+            target = Paths.get(directory, filename);
+            Path uploads = Files.createDirectories(Paths.get(
+                store == null ? directory : store instanceof ChunkStore ? chunkDirectory : packDirectory, UPLOADS));
+            temp = Files.createTempFile(uploads, "upload-", ".tmp");
+            try (FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(UPLOAD_BUFFER_SIZE);
+                long received = 0;
+                while (received < length){
+                    int done = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), length - received));
+                    if (done == -1){
+                        throw new EOFException("Upload ended after " + received + " of " + length + " bytes: " + filename);
+                    }
+                    crc.update(buffer.array(), 0, done);
+                    buffer.clear().limit(done);
+                    while (buffer.hasRemaining()){
+                        file.write(buffer);
+                    }
+                    received += done;
+                }
+                file.force(false);
+            }
+            checksum = new DataInputStream(in).readInt() & 0xffffffffL;
+        } catch (EOFException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } catch (IOException | InvalidPathException e) {
+            System.err.println(e);
+            if (temp != null){
+                Files.deleteIfExists(temp);
+            }
+            outStream.write(FAILED, 0, FAILED.length);
+            return false;
+        }
+        try {
+            if (crc.getValue() != checksum){
+                System.err.println("Checksum mismatch in upload: " + filename);
+                outStream.write(FAILED, 0, FAILED.length);
+                return true;
+            }
+            if (store != null){
+                try (FileChannel source = FileChannel.open(temp, StandardOpenOption.READ)) {
+                    store.add(filename, source, source.size(), System.currentTimeMillis());
+                }
+                store.force();
+            }
+            else {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+            outStream.write(FAILED, 0, FAILED.length);
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        stored(filename, checksum);
+        outStream.write(stat(filename).array());
+        return true;
+    }
+
+    /**
+     * Purpose:
+     *      Records that a file has been written by an upload: its entry in the directory index is updated, with the
+     *      checksum of the data received so the file is not read again to compute it, and the index has the cached
+     *      contents and mappings of the old file dropped. Without the index they are dropped here, along with the name
+     *      in the negative cache. With a pack or chunk store there is nothing to do, as adding the file updated its index.
+     *
+     *  @param filename : The name of the file.
+     *  @param checksum : The CRC32 checksum of the file's contents.
+     */
+    private void stored(String filename, long checksum) {
+        if (store != null){
+            return;
+        }
+        if (index != null){
+            index.update(filename, checksum);
+            return;
+        }
+        if (contentCache != null){
+            contentCache.invalidate(filename);
+        }
+        if (mappedFiles != null){
+            mappedFiles.invalidate(filename);
+        }
+        if (negativeCache != null){
+            negativeCache.invalidate(filename);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Answers a batch request: the lines following BATCH up to an empty line, each a filename or a range request.
+     *      Each line is answered as soon as it is read with its ENTRY header (see entry) followed by its response (see
+     *      respond), and the END flag follows the last, so a client can fetch any number of files in one round trip.
+     *
+     *  @param in : The buffered stream of the client's requests.
+     *  @param outStream : A BufferedOutputStream with an established connection to the client.
+     *  @param channel : The SocketChannel of the connection, or null if the socket has no channel.
+     *  @param version : The protocol version of the connection, 0 if it is closed after the batch.
+     *
+     * NOTES:
+     *      Responses are flushed only when no further line has already been received, so the answers to a batch of
+     *      missing or cached files leave in as few segments as possible.
+     *      A batch ended by the client closing the connection is not answered with END.
+     *
+     *  @exception IOException : when an I/O error occurs while reading the batch or sending the responses.
+     */
+    private void batch(InputStream in, BufferedOutputStream outStream, SocketChannel channel, int version) throws IOException {
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()){
+            outStream.write(entry(line).array());
+            respond(line, outStream, channel, Math.max(version, 1));
+            if (in.available() == 0){
+                outStream.flush();
+            }
+        }
+        if (line != null){
+            outStream.write(END, 0, END.length);
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Answers a glob request, GLOB followed by a pattern: every file matching the pattern (see match) is sent with its
+     *      ENTRY header (see entry) and response, and the END flag follows the last. A pattern containing a '/' or that
+     *      is malformed is answered with the INVALID_SYMBOL flag alone.
+     *
+     *  @param line : The request line.
+     *  @param outStream : A BufferedOutputStream with an established connection to the client.
+     *  @param channel : The SocketChannel of the connection, or null if the socket has no channel.
+     *  @param version : The protocol version of the connection, 0 if it is closed after the response.
+     *
+     * NOTES:
+     *      A file deleted between matching and sending is answered with NOT_FOUND in its entry.
+     *
+     *  @exception IOException : when an I/O error occurs while listing the directory or sending the responses.
+     */
+    private void glob(String line, BufferedOutputStream outStream, SocketChannel channel, int version) throws IOException {
+        List<String> names = match(line.substring(GLOB.length()));
+        if (names == null){
+            outStream.write(INVALID_SYMBOL, 0, INVALID_SYMBOL.length);
+            return;
+        }
+        for (String filename : names){
+            outStream.write(entry(filename).array());
+            respond(filename, outStream, channel, Math.max(version, 1));
+        }
+        outStream.write(END, 0, END.length);
+    }
+
+    /**
+     * Purpose:
+     *      Reads one request line encoded in "utf-8" from the client, up to a newline, which is removed along with a
+     *      preceding carriage return. The line is read byte by byte from the buffered stream, so no bytes after the
+     *      newline are consumed and the rest of the connection can carry binary frames (see Multiplexer).
+     *
+     *  @param in : The buffered stream of the client's requests.
+     *
+     *  Returns:
+     *      The line, or null if the connection was closed before a newline was received.
+     *
+     * NOTES:
+     *      Only the first BUFFER_SIZE bytes of a longer line are kept, which cannot name an existing file.
+     *
+     *  @exception IOException : when an I/O error occurs while reading from the connection.
+     */
+    static String readLine(InputStream in) throws IOException {
+        byte[] line = new byte[BUFFER_SIZE];
+        int length = 0;
+        int next;
+        while ((next = in.read()) != '\n'){
+            if (next == -1){
+                return null;
+            }
+            if (length < line.length){
+                line[length++] = (byte) next;
+            }
+        }
+        if (length > 0 && line[length - 1] == '\r'){
+            length--;
+        }
+        return new String(line, 0, length, "UTF-8");
+    }
+
+    /**
+     * Purpose:
+     *      Closes a keep-alive connection gracefully once its last response has been written: the output is shut down so
+     *      the client reads to the end of the response and sees the connection close, then any requests the client has
+     *      pipelined meanwhile are read and discarded until the client closes its side or idleTimeout passes.
+     *
+     *  @param socket : The connection to the client.
+     *  @param in : The stream of the client's requests.
+     *
+     * NOTES:
+     *      Closing a socket with unread data makes the operating system reset the connection, which can discard the
+     *      end of the last response before the client has read it.
+     *
+     *  @exception IOException : when an I/O error occurs while shutting down or reading the connection.
+     */
+    private static void linger(Socket socket, InputStream in) throws IOException {
+        socket.shutdownOutput();
+        byte[] discard = new byte[BUFFER_SIZE];
+        while (in.read(discard) != -1){
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Creates the executor used to serve accepted connections, according to the configured mode:
+     *            - SINGLE : no executor, connections are served on the accepting thread.
+     *            - REACTOR : no executor, connections are served by the Reactor.
+     *            - POOL : a fixed number of worker threads and a queue of at most queueDepth waiting connections; a
+     *              connection arriving when both are full is answered with the BUSY flag and closed so that the accepting
+     *              thread never blocks on a slow client.
+     *            - VIRTUAL : a new virtual thread for each connection (see createVirtualExecutor).
+     *
+     *  Returns:
+     *      The executor, or null when the server is configured to serve connections on the accepting thread.
+     */
+    private ExecutorService createExecutor() {
+        switch (config.mode) {
+            case SINGLE:
+            case REACTOR:
+                return null;
+            case VIRTUAL:
+                return createVirtualExecutor();
+            default:
+                break;
+        }
+        BlockingQueue<Runnable> queue = config.queueDepth == 0
+            ? new SynchronousQueue<Runnable>()
+            : new ArrayBlockingQueue<Runnable>(config.queueDepth);
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, "worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(config.workers, config.workers, 0L, TimeUnit.MILLISECONDS, queue, factory, (task, pool) -> {
+            rejected.incrementAndGet();
+            ((Connection) task).reject();
+        });
+    }
+
+    /**
+     * Purpose:
+     *      Creates an executor that starts a new virtual thread for each connection. A virtual thread blocked in a socket
+     *      read or write does not hold a platform thread, so tens of thousands of slow transfers can be served with the
+     *      same blocking code as the other modes.
+     *
+     *  Returns:
+     *      The virtual thread executor. If virtual threads are not available the program closes, as serving each
+     *      connection on a platform thread of its own would exhaust threads under the load this mode is meant for.
+     *
+     * NOTES:
+     *      Virtual threads require Java 21. The executor is looked up at runtime so the server still builds and runs on
+     *      older versions in the other modes.
+     */
+    private static ExecutorService createVirtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("--mode=virtual requires Java 21 or later, this is Java " + Runtime.version().feature()
+                + "; use --mode=pool or --mode=reactor");
+            System.exit(-3);
+            return null;
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Hands an accepted connection to the executor, or serves it directly when there is no executor.
+     *
+     *  @param executor : The executor serving connections, or null.
+     *  @param clientSocket : An accepted connection to the client.
+     */
+    private void dispatch(ExecutorService executor, Socket clientSocket) {
+        accepted.incrementAndGet();
+        if (executor == null){
+            handle(clientSocket);
+            return;
+        }
+        executor.execute(new Connection(clientSocket));
+        updatePeak(peakQueued, queued(executor));
+    }
+
+    /**
+     * Purpose:
+     *      Records a connection being opened and served. Used by engines that serve connections without the executor.
+     */
+    void opened() {
+        accepted.incrementAndGet();
+        updatePeak(peakActive, active.incrementAndGet());
+    }
+
+    /**
+     * Purpose:
+     *      Records a connection recorded by opened being closed.
+     */
+    void closed() {
+        active.decrementAndGet();
+    }
+
+    private static int queued(ExecutorService executor) {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    private static void updatePeak(AtomicInteger peak, int value) {
+        int current;
+        while (value > (current = peak.get()) && !peak.compareAndSet(current, value)) {
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Prints the connection and worker pool counters, used to size the pool under real load:
+     *            - accepted / rejected : connections accepted, and those answered BUSY because the pool was saturated.
+     *            - active / peakActive : connections being served now, and the most served at once.
+     *            - queued / peakQueued : connections waiting for a worker now, and the most waiting at once.
+     *            - avgWaitMs : mean time a served connection spent waiting for a worker.
+     *      followed by the content cache, negative cache, directory index and pack or chunk store counters when they are
+     *      enabled.
+     *
+     *  @param executor : The executor serving connections, or null.
+     */
+    private void printStats(ExecutorService executor) {
+        long served = accepted.get() - rejected.get();
+        System.out.println(String.format(
+            "accepted=%d rejected=%d active=%d peakActive=%d queued=%d peakQueued=%d avgWaitMs=%.3f",
+            accepted.get(), rejected.get(), active.get(), peakActive.get(),
+            queued(executor), peakQueued.get(),
+            served == 0 ? 0.0 : queueWaitNanos.get() / 1e6 / served)
+            + (contentCache == null ? "" : " " + contentCache.stats())
+            + (negativeCache == null ? "" : " " + negativeCache.stats())
+            + (index == null ? "" : " " + index.stats())
+            + (store == null ? "" : " " + store.stats()));
     }
 
     /**
      * Purpose:
      *      Creates socket on specified port and serves until manually closed.
-     *      Establishes a connection to the client, read data from socket encoded in "utf-8" until a newline is received. 
-     *      Server calls readFile to send the data from the requested file to the client. If the file does not exist, the server 
-     *      will respond with the NOT_FOUND flag.
+     *      Accepts connections from clients and hands each to the executor for the configured mode (see createExecutor),
+     *      which serves it with handle. Outside SINGLE mode a slow transfer to one client does not hold up accepting and
+     *      serving the others.
+     *      In REACTOR mode the connections are instead served by a Reactor, without a thread per connection.
+     *      The listening socket is opened through a ServerSocketChannel so that accepted sockets have a SocketChannel
+     *      readFile can transfer file data to directly.
      * 
      * NOTES:
-     *      If the message received from client contains any '/' characters, the server will respond with the INVALID_SYMBOL flag
-     *      and close the connection.
      *      This connection is set to serve until manually closed.
+     *      In POOL mode, when every worker is busy and the queue is full, the client is answered with the BUSY flag and the connection is closed.
      * 
      *  @exception IOException : when an I/O error occurs when waiting for a connection or if an error occurs while setting up the serverSocket.
      *  @exception SecurityException : when a security manager and its checkListen or checkAccept method refuse the operation.
@@ -89,22 +1275,32 @@ public class Server {
      *      
      */
     public void serve() {
+        ExecutorService executor = createExecutor();
+        if (config.statsInterval > 0){
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "stats");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> printStats(executor), config.statsInterval, config.statsInterval, TimeUnit.SECONDS);
+        }
+        if (config.mode == ServerConfig.Mode.REACTOR){
+            try {
+                new Reactor(this, config).serve();
+            } catch (IOException e) {
+                System.err.println(e);
+                System.exit(-1);
+            }
+            return;
+        }
         try(
-            ServerSocket serverSocket = new ServerSocket(port);
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
         ){
+            serverChannel.bind(new InetSocketAddress(port), config.backlog);
+            ServerSocket serverSocket = serverChannel.socket();
             while(true){
-                try (
-                    Socket clientSocket = serverSocket.accept();
-                    BufferedOutputStream outStream = new BufferedOutputStream(clientSocket.getOutputStream());
-                    BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), "UTF-8"), BUFFER_SIZE);
-                ) {
-                    String inputLine = in.readLine();
-                    if (inputLine.contains("/")){
-                        outStream.write(INVALID_SYMBOL, 0, INVALID_SYMBOL.length);
-                    }
-                    else if(!readFile(inputLine, outStream)){
-                        outStream.write(NOT_FOUND, 0, NOT_FOUND.length);
-                    }
+                try {
+                    dispatch(executor, serverSocket.accept());
                 } catch (IOException e) {
                     System.err.println(e);
                 } catch (SecurityException e) {
@@ -124,9 +1320,56 @@ public class Server {
         }
     }
 
+    /**
+     * Purpose:
+     *      A connection waiting for the executor to serve it. Records how long it waited for a thread and how many
+     *      connections are served at once.
+     */
+    private class Connection implements Runnable {
+
+        private final Socket clientSocket;
+        private final long queuedAt = System.nanoTime();
+
+        Connection(Socket clientSocket) {
+            this.clientSocket = clientSocket;
+        }
+
+        @Override
+        public void run() {
+            queueWaitNanos.addAndGet(System.nanoTime() - queuedAt);
+            updatePeak(peakActive, active.incrementAndGet());
+            try {
+                handle(clientSocket);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        /**
+         * Purpose:
+         *      Answers the client with the BUSY flag and closes the connection, without reading the request.
+         */
+        void reject() {
+            try (Socket socket = clientSocket) {
+                OutputStream out = socket.getOutputStream();
+                out.write(BUSY, 0, BUSY.length);
+                out.flush();
+                socket.shutdownOutput();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
     public static void main(String[] args){
-        final int PORT = 12345;
-        Server server = new Server(PORT);
+        ServerConfig config = null;
+        try {
+            config = ServerConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(-3);
+        }
+        Server server = new Server(config);
         server.serve();
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,311 @@
+/**
+ * Purpose:
+ *      Startup settings for the file server. Every setting has a default so the server can still be started with no
+ *      arguments; individual settings are overridden on the command line in the form --name=value.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class ServerConfig {
+
+    /**
+     * How accepted connections are executed:
+     *      - SINGLE : each connection is served to completion on the accepting thread.
+     *      - POOL : connections are served by a fixed pool of worker threads.
+     *      - VIRTUAL : each connection is served on its own virtual thread.
+     *      - REACTOR : connections are served by threads each driving a non-blocking Selector.
+     */
+    public enum Mode { SINGLE, POOL, VIRTUAL, REACTOR }
+
+    /**
+     * How the REACTOR acceptor hands connections to the selector loops:
+     *      - ROUNDROBIN : each loop in turn.
+     *      - LEASTLOADED : the loop with the fewest open connections.
+     */
+    public enum Balance { ROUNDROBIN, LEASTLOADED }
+
+    /**
+     * Where the served files are kept:
+     *      - FILES : one file each in the served directory.
+     *      - PACK : packed into large segment files by a PackStore (see PackStore.main to pack the served directory).
+     *      - CHUNKS : split into content-defined chunks by a ChunkStore, which keeps each distinct chunk once in a
+     *        PackStore, so files sharing content share its space.
+     */
+    public enum Store { FILES, PACK, CHUNKS }
+
+    /** Port for the server to listen on. */
+    public int port = 12345;
+
+    /** Maximum number of connections waiting to be accepted by the operating system. */
+    public int backlog = 1024;
+
+    /** How accepted connections are executed. */
+    public Mode mode = Mode.POOL;
+
+    /** Number of worker threads serving connections in POOL mode. */
+    public int workers = Runtime.getRuntime().availableProcessors() * 4;
+
+    /** Number of accepted connections allowed to wait for a free worker before the server answers BUSY. */
+    public int queueDepth = 64;
+
+    /**
+     * Number of selector loops serving connections in REACTOR mode, normally one per core. 0 serves every connection,
+     * and accepts them, from a single selector on the calling thread.
+     */
+    public int selectors = Runtime.getRuntime().availableProcessors();
+
+    /** How the REACTOR acceptor hands connections to the selector loops. */
+    public Balance balance = Balance.LEASTLOADED;
+
+    /**
+     * Seconds a connection may wait for its first or next request line before the server closes it. 0 waits indefinitely.
+     */
+    public int idleTimeout = 30;
+
+    /** Maximum number of requests answered on one keep-alive connection before the server closes it. */
+    public int maxRequests = 1000;
+
+    /** Maximum number of streams open at once on one multiplexed connection; further streams are answered BUSY. */
+    public int muxStreams = 100;
+
+    /** Whether clients may upload files into the served directory. Only the blocking engines accept uploads. */
+    public boolean uploads = false;
+
+    /** Size in bytes of the largest file a client may upload. */
+    public long uploadMaxSize = 1024L * 1024 * 1024;
+
+    /**
+     * Whether file data is sent with FileChannel.transferTo, letting the kernel copy it to the socket without passing
+     * through the Java heap. When false it is copied through a buffer.
+     */
+    public boolean zeroCopy = true;
+
+    /** Total size in bytes of file contents kept in the in-memory content cache. 0 disables the cache. */
+    public long cacheSize = 64L * 1024 * 1024;
+
+    /** Size in bytes above which files are not kept in the content cache. */
+    public long cacheMaxEntry = 1024 * 1024;
+
+    /**
+     * Whether the content cache holds file contents in slab-allocated direct memory instead of on the Java heap, so a
+     * large cache does not add to garbage collection pauses. Direct memory is limited to the maximum heap size unless
+     * the JVM is started with -XX:MaxDirectMemorySize of at least cacheSize, e.g. java -Xmx512m
+     * -XX:MaxDirectMemorySize=5g Server --cache-offheap=true --cache-size=4294967296; past the limit the cache stops
+     * growing and further files are streamed from disk.
+     */
+    public boolean cacheOffHeap = false;
+
+    /**
+     * Where the served files are kept. With PACK or CHUNKS the content cache, memory mappings, directory index and negative cache
+     * are not used, as files are served from segments that are always open and indexed by the store itself.
+     */
+    public Store store = Store.FILES;
+
+    /** Size in bytes past which the pack store, or the pack stores of the chunk store, start a new segment. */
+    public long packSegmentSize = 1024L * 1024 * 1024;
+
+    /**
+     * Seconds between passes of the pack store compactor, which reclaims the space of replaced files by copying the files
+     * still served out of mostly replaced segments. 0 disables the compactor.
+     */
+    public int packCompactInterval = 300;
+
+    /** Bytes per second the pack store compactor may copy, so that it leaves the disk to the transfers. */
+    public long packCompactRate = 32L * 1024 * 1024;
+
+    /**
+     * Whether the served directory is indexed in memory and watched for changes, so that requests only touch the
+     * filesystem to read file data. When false, each request looks the file up on disk, and the reactor does not answer
+     * listings.
+     */
+    public boolean index = true;
+
+    /** Maximum number of files the directory index keeps open for reuse between requests. */
+    public int indexHandles = 1024;
+
+    /**
+     * Whether the directory index computes the checksum of each file in the background as soon as the file appears or
+     * changes, so that checksums sent in headers and compared by conditional requests are ready when asked for.
+     */
+    public boolean indexChecksums = true;
+
+    /**
+     * Maximum number of missing filenames remembered by the negative cache, used when the directory index is disabled.
+     * 0 disables the cache.
+     */
+    public int negativeSize = 10000;
+
+    /** Seconds a missing filename is remembered by the negative cache. */
+    public int negativeTtl = 10;
+
+    /** Whether files of at least mmapThreshold bytes are served from a shared memory mapping. */
+    public boolean mmap = false;
+
+    /** Size in bytes below which files are read normally rather than memory mapped. */
+    public long mmapThreshold = 256 * 1024;
+
+    /** Seconds after which a memory mapping that has not been used is unmapped. */
+    public int mmapIdle = 60;
+
+    /** Seconds between printing the server counters to standard output. 0 disables the report. */
+    public int statsInterval = 0;
+
+    /**
+     * Purpose:
+     *      Builds a configuration from the default settings, overriding each setting named in args.
+     *
+     *  @param args : command line arguments of the form --name=value.
+     *
+     *  Returns:
+     *      The resulting configuration.
+     *
+     *  @exception IllegalArgumentException : when an argument is malformed, names an unknown setting or has an invalid value.
+     */
+    public static ServerConfig parse(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            config.set(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return config;
+    }
+
+    /**
+     * Purpose:
+     *      Sets the named setting from its string value.
+     *
+     *  @param name  : name of the setting as given on the command line.
+     *  @param value : the new value.
+     *
+     *  @exception IllegalArgumentException : when the setting is unknown or the value is invalid for it.
+     */
+    private void set(String name, String value) {
+        switch (name) {
+            case "port":
+                port = parseInt(name, value, 0, 65535);
+                break;
+            case "backlog":
+                backlog = parseInt(name, value, 1, Integer.MAX_VALUE);
+                break;
+            case "mode":
+                mode = parseEnum(Mode.class, name, value);
+                break;
+            case "workers":
+                workers = parseInt(name, value, 1, Integer.MAX_VALUE);
+                break;
+            case "queue":
+                queueDepth = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "selectors":
+                selectors = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "balance":
+                balance = parseEnum(Balance.class, name, value);
+                break;
+            case "idle-timeout":
+                idleTimeout = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "max-requests":
+                maxRequests = parseInt(name, value, 1, Integer.MAX_VALUE);
+                break;
+            case "mux-streams":
+                muxStreams = parseInt(name, value, 1, Integer.MAX_VALUE);
+                break;
+            case "uploads":
+                uploads = parseBoolean(name, value);
+                break;
+            case "upload-max-size":
+                uploadMaxSize = parseLong(name, value, 0, Long.MAX_VALUE);
+                break;
+            case "zerocopy":
+                zeroCopy = parseBoolean(name, value);
+                break;
+            case "cache-size":
+                cacheSize = parseLong(name, value, 0, Long.MAX_VALUE);
+                break;
+            case "cache-max-entry":
+                cacheMaxEntry = parseLong(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "cache-offheap":
+                cacheOffHeap = parseBoolean(name, value);
+                break;
+            case "store":
+                store = parseEnum(Store.class, name, value);
+                break;
+            case "pack-segment-size":
+                packSegmentSize = parseLong(name, value, 1, Long.MAX_VALUE);
+                break;
+            case "pack-compact-interval":
+                packCompactInterval = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "pack-compact-rate":
+                packCompactRate = parseLong(name, value, 1, Long.MAX_VALUE);
+                break;
+            case "index":
+                index = parseBoolean(name, value);
+                break;
+            case "index-handles":
+                indexHandles = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "index-checksums":
+                indexChecksums = parseBoolean(name, value);
+                break;
+            case "negative-size":
+                negativeSize = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "negative-ttl":
+                negativeTtl = parseInt(name, value, 1, Integer.MAX_VALUE);
+                break;
+            case "mmap":
+                mmap = parseBoolean(name, value);
+                break;
+            case "mmap-threshold":
+                mmapThreshold = parseLong(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "mmap-idle":
+                mmapIdle = parseInt(name, value, 1, Integer.MAX_VALUE);
+                break;
+            case "stats":
+                statsInterval = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown setting: " + name);
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown value for setting " + name + ": " + value);
+        }
+    }
+
+    private static boolean parseBoolean(String name, String value) {
+        if (!value.equals("true") && !value.equals("false")) {
+            throw new IllegalArgumentException("Setting " + name + " requires true or false: " + value);
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    private static int parseInt(String name, String value, int min, int max) {
+        return (int) parseLong(name, value, min, max);
+    }
+
+    private static long parseLong(String name, String value, long min, long max) {
+        long result;
+        try {
+            result = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting " + name + " requires a number: " + value);
+        }
+        if (result < min || result > max) {
+            throw new IllegalArgumentException("Setting " + name + " must be between " + min + " and " + max + ": " + value);
+        }
+        return result;
+    }
+}
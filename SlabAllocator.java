@@ -0,0 +1,184 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Purpose:
+ *      Allocator of fixed size slots in direct (off-heap) memory, used by the content cache so that several gigabytes of
+ *      file contents do not live on the Java heap. Memory is reserved in pages of up to MAX_PAGE_SIZE bytes (smaller for
+ *      a small capacity, so there are at least MIN_PAGES to share between size classes) up to a total capacity;
+ *      each page is divided into slots of one size class, the classes growing by GROWTH_FACTOR from MIN_SLOT_SIZE up to
+ *      the largest slot needed. A request is served from the smallest class it fits in, and a freed slot goes back to
+ *      its class to be reused, so the memory is never returned to the garbage collector.
+ *
+ * NOTES:
+ *      Pages are assigned to a size class when first needed and stay with it. When every page has been assigned, a full
+ *      class can only make room by evicting entries of the same class (see ContentCache).
+ *      Direct memory is limited by -XX:MaxDirectMemorySize, which defaults to the maximum heap size. A capacity above
+ *      the limit is reported when the allocator is created, and once a page cannot be reserved no more pages are tried,
+ *      as if the capacity had been reached.
+ *
+ * @version 1.0
+ * @author Dylan Spence
+ * @date 2026-10-16
+ */
+public class SlabAllocator {
+
+    private static final int MIN_SLOT_SIZE = 1024;
+    private static final double GROWTH_FACTOR = 1.25;
+    private static final int MAX_PAGE_SIZE = 1024 * 1024;
+    private static final int MIN_PAGES = 64;
+
+    /**
+     * Purpose:
+     *      A slot of direct memory belonging to one size class.
+     */
+    public static class Slot {
+        final int sizeClass;
+        final ByteBuffer buffer;
+
+        Slot(int sizeClass, ByteBuffer buffer) {
+            this.sizeClass = sizeClass;
+            this.buffer = buffer;
+        }
+    }
+
+    private final int[] classSizes;
+    private final List<ArrayDeque<Slot>> free = new ArrayList<>();
+    private final int pageSize;
+    private long maxPages;
+    private long pages;
+    private long slotsInUse;
+    private long bytesInUse;
+
+    /**
+     * Constructor
+     * @param capacity    : total bytes of direct memory the allocator may reserve
+     * @param maxSlotSize : size in bytes of the largest allocation
+     */
+    public SlabAllocator(long capacity, int maxSlotSize) {
+        int count = 1;
+        for (double size = MIN_SLOT_SIZE; size < maxSlotSize; size *= GROWTH_FACTOR) {
+            count++;
+        }
+        classSizes = new int[count];
+        double size = MIN_SLOT_SIZE;
+        for (int i = 0; i < count - 1; i++, size *= GROWTH_FACTOR) {
+            classSizes[i] = (int) size;
+        }
+        classSizes[count - 1] = Math.max(maxSlotSize, MIN_SLOT_SIZE);
+        for (int i = 0; i < count; i++) {
+            free.add(new ArrayDeque<>());
+        }
+        pageSize = (int) Math.max(classSizes[count - 1], Math.min(MAX_PAGE_SIZE, capacity / MIN_PAGES));
+        maxPages = Math.max(1, capacity / pageSize);
+        long limit = maxDirectMemory();
+        if (maxPages * pageSize > limit) {
+            System.err.println("Off-heap cache of " + maxPages * pageSize + " bytes exceeds the direct memory limit of "
+                + limit + " bytes; raise it with -XX:MaxDirectMemorySize");
+        }
+    }
+
+    /**
+     * Purpose:
+     *      Returns the JVM's limit on direct memory: the value of -XX:MaxDirectMemorySize if given, otherwise the maximum
+     *      heap size.
+     */
+    static long maxDirectMemory() {
+        String option = "-XX:MaxDirectMemorySize=";
+        long limit = Runtime.getRuntime().maxMemory();
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!argument.startsWith(option)) {
+                continue;
+            }
+            String value = argument.substring(option.length()).toLowerCase();
+            int shift = value.endsWith("k") ? 10 : value.endsWith("m") ? 20 : value.endsWith("g") ? 30 : value.endsWith("t") ? 40 : 0;
+            try {
+                long number = Long.parseLong(shift == 0 ? value : value.substring(0, value.length() - 1));
+                limit = number == 0 ? Runtime.getRuntime().maxMemory() : number << shift;
+            } catch (NumberFormatException e) {
+                System.err.println("Unexpected " + argument);
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Purpose:
+     *      Returns the size class an allocation of the given size is served from.
+     *
+     *  @param size : Size in bytes, at most the largest slot size.
+     */
+    public int sizeClass(long size) {
+        for (int i = 0; i < classSizes.length; i++) {
+            if (size <= classSizes[i]) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Allocation larger than the largest slot: " + size);
+    }
+
+    /**
+     * Purpose:
+     *      Allocates a slot large enough for size bytes, reserving a new page for its class if it has no free slot.
+     *
+     *  @param size : Size in bytes, at most the largest slot size.
+     *
+     *  Returns:
+     *      The slot, whose buffer has a limit of size, or null when the class is full and no pages are left, including
+     *      when the direct memory limit has been reached.
+     */
+    public synchronized Slot allocate(long size) {
+        int sizeClass = sizeClass(size);
+        Slot slot = free.get(sizeClass).poll();
+        if (slot == null && pages < maxPages) {
+            try {
+                addPage(sizeClass);
+                slot = free.get(sizeClass).poll();
+            } catch (OutOfMemoryError e) {
+                System.err.println("Off-heap cache limited to " + pages + " pages: " + e.getMessage());
+                maxPages = pages;
+            }
+        }
+        if (slot == null) {
+            return null;
+        }
+        slotsInUse++;
+        bytesInUse += classSizes[sizeClass];
+        slot.buffer.clear().limit((int) size);
+        return slot;
+    }
+
+    /**
+     * Purpose:
+     *      Returns a slot to its size class to be reused.
+     *
+     *  @param slot : A slot returned by allocate and no longer in use.
+     */
+    public synchronized void free(Slot slot) {
+        slotsInUse--;
+        bytesInUse -= classSizes[slot.sizeClass];
+        free.get(slot.sizeClass).push(slot);
+    }
+
+    /**
+     * Purpose:
+     *      Returns the allocator counters: pages reserved, slots in use and the bytes of slot capacity they occupy.
+     */
+    public synchronized String stats() {
+        return String.format("slabPages=%d slabSlots=%d slabBytes=%d slabReserved=%d",
+            pages, slotsInUse, bytesInUse, pages * pageSize);
+    }
+
+    private void addPage(int sizeClass) {
+        ByteBuffer page = ByteBuffer.allocateDirect(pageSize);
+        int slotSize = classSizes[sizeClass];
+        for (int offset = 0; offset + slotSize <= pageSize; offset += slotSize) {
+            page.limit(offset + slotSize).position(offset);
+            free.get(sizeClass).add(new Slot(sizeClass, page.slice()));
+        }
+        pages++;
+    }
+}